@@ -0,0 +1,33 @@
+/**
+ * Copyright 2010 Tommi S.E. Laukkanen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.lazyquerycontainer;
+
+/**
+ * Query which can load items on a thread other than the request thread.
+ * LazyQueryView prefetches batches in background only for these queries.
+ * Queries holding thread bound resources, such as a shared entity manager,
+ * are only invoked from the thread holding the session lock.
+ *
+ * @author Tommi S.E. Laukkanen
+ */
+public interface BackgroundLoadQuery extends Query {
+    /**
+     * Checks whether items can be loaded on a background thread.
+     *
+     * @return true if items can be loaded on a background thread.
+     */
+    boolean isBackgroundLoadSupported();
+}
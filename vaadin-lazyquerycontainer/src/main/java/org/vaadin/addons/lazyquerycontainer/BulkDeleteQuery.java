@@ -0,0 +1,32 @@
+/**
+ * Copyright 2010 Tommi S.E. Laukkanen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.lazyquerycontainer;
+
+/**
+ * Query which can delete all items matching its filters without loading
+ * them and report the number of deleted items.
+ *
+ * @author Tommi S.E. Laukkanen
+ */
+public interface BulkDeleteQuery extends Query {
+    /**
+     * Removes all items matching the query filters.
+     * Query will be discarded after delete all items has been called.
+     *
+     * @return number of removed items.
+     */
+    int bulkDeleteAllItems();
+}
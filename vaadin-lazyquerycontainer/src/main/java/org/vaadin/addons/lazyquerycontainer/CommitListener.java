@@ -0,0 +1,36 @@
+/**
+ * Copyright 2010 Tommi S.E. Laukkanen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.lazyquerycontainer;
+
+import java.io.Serializable;
+
+/**
+ * Interface for following progress of EntityQuery commit. Progress is
+ * reported after each flushed chunk and once more when all entities have
+ * been saved. Reported counts are not final before the transaction has
+ * been committed.
+ *
+ * @author Tommi S.E. Laukkanen
+ */
+public interface CommitListener extends Serializable {
+    /**
+     * Invoked when entities have been saved to the persistence context.
+     *
+     * @param savedCount the number of entities inserted, updated or removed so far.
+     * @param totalCount the total number of entities to be inserted, updated or removed.
+     */
+    void commitProgress(int savedCount, int totalCount);
+}
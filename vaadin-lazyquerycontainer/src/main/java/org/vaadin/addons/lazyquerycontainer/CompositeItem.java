@@ -29,7 +29,7 @@ import java.util.*;
  *
  * @author Tommi Laukkanen
  */
-public final class CompositeItem implements Item, Serializable {
+public final class CompositeItem implements ModificationTrackingItem, Serializable {
     /**
      * Serial version UID for this class.
      */
@@ -50,6 +50,18 @@ public final class CompositeItem implements Item, Serializable {
      * The default item.
      */
     private Item defaultItem = new PropertysetItem();
+    /**
+     * Listener notified of property value changes or null.
+     */
+    private ItemModificationListener itemModificationListener;
+    /**
+     * Relay notified by the properties handed out while modification tracking is on.
+     */
+    private final ModificationRelay modificationRelay = new ModificationRelay();
+    /**
+     * Tracking wrappers of the properties by property ID or null if modification tracking has not been enabled.
+     */
+    private Map<Object, ModificationTrackingProperty<?>> trackingProperties;
 
     /**
      * Default constructor initializes default Item.
@@ -115,7 +127,9 @@ public final class CompositeItem implements Item, Serializable {
     }
 
     /**
-     * Gets Item property by Item id.
+     * Gets Item property by Item id. Once modification listener has been set
+     * the property is returned wrapped so that value changes made through it
+     * are reported to the listener.
      *
      * @param id ID of the property to be retrieved.
      * @return property corresponding to the given ID or null if no matching property is found.
@@ -125,6 +139,10 @@ public final class CompositeItem implements Item, Serializable {
             Item item = items.get(itemKey);
             Property property = item.getItemProperty(id);
             if (property != null) {
+                if (trackingProperties != null) {
+                    return ModificationTrackingProperty.wrap(trackingProperties, id, property, this,
+                            modificationRelay);
+                }
                 return property;
             }
         }
@@ -152,4 +170,44 @@ public final class CompositeItem implements Item, Serializable {
         return defaultItem.removeItemProperty(id);
     }
 
+    /**
+     * Sets the listener notified of property value changes made through the
+     * properties of this item. No listeners are registered to the properties.
+     * Instead each property is wrapped once when the listener is first set
+     * and the wrappers are handed out from then on. Changes made directly to
+     * the underlying properties are not reported.
+     *
+     * @param listener The listener or null to stop notifications.
+     */
+    @Override
+    public void setItemModificationListener(final ItemModificationListener listener) {
+        itemModificationListener = listener;
+        if (listener != null && trackingProperties == null) {
+            trackingProperties = new HashMap<Object, ModificationTrackingProperty<?>>();
+            for (final Object propertyId : getItemPropertyIds()) {
+                getItemProperty(propertyId);
+            }
+        }
+    }
+
+    /**
+     * Relays modifications of properties to the listener of this composite item.
+     */
+    private final class ModificationRelay implements ItemModificationListener {
+        /**
+         * Serial version UID for this class.
+         */
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void itemModified(final Item item, final Property property) {
+            if (itemModificationListener != null) {
+                itemModificationListener.itemModified(CompositeItem.this, property);
+            }
+        }
+    }
+
 }
@@ -0,0 +1,32 @@
+/**
+ * Copyright 2010 Tommi S.E. Laukkanen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.lazyquerycontainer;
+
+/**
+ * Query which can count its items concurrently with loading items. Other
+ * queries are counted in background while holding the query lock of the view
+ * so that they are never invoked from two threads at the same time.
+ *
+ * @author Tommi S.E. Laukkanen
+ */
+public interface ConcurrentCountQuery extends Query {
+    /**
+     * Checks whether size can be invoked concurrently with loading items.
+     *
+     * @return true if size can be invoked concurrently with loading items.
+     */
+    boolean isConcurrentCountSupported();
+}
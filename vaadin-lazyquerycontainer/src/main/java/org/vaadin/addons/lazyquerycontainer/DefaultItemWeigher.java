@@ -0,0 +1,131 @@
+/**
+ * Copyright 2010 Tommi S.E. Laukkanen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.lazyquerycontainer;
+
+import com.vaadin.data.Item;
+import com.vaadin.data.Property;
+import com.vaadin.data.util.BeanItem;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Date;
+
+/**
+ * Default item weigher. Estimates item weight from the values of its
+ * properties. Composite items are weighed as sum of their sub items. For
+ * nesting bean items only properties of the bean itself are weighed as
+ * nested properties refer to other beans, and values which are not simple
+ * types are weighed as references so that lazy loaded associations are not
+ * touched.
+ *
+ * @author Tommi S.E. Laukkanen
+ */
+public final class DefaultItemWeigher implements ItemWeigher {
+    /**
+     * Java serialization version UID.
+     */
+    private static final long serialVersionUID = 1L;
+    /**
+     * Weight of object header and reference.
+     */
+    private static final long OBJECT_WEIGHT = 16;
+    /**
+     * Weight of item and its property map.
+     */
+    private static final long ITEM_WEIGHT = 64;
+    /**
+     * Weight of property and its map entry.
+     */
+    private static final long PROPERTY_WEIGHT = 48;
+    /**
+     * Weight of boxed primitive or date.
+     */
+    private static final long BOXED_WEIGHT = 24;
+    /**
+     * Weight of big number.
+     */
+    private static final long BIG_NUMBER_WEIGHT = 56;
+    /**
+     * Weight of string excluding characters.
+     */
+    private static final long STRING_WEIGHT = 40;
+    /**
+     * Weight of array element reference.
+     */
+    private static final long REFERENCE_WEIGHT = 8;
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long weigh(final Item item) {
+        if (item instanceof CompositeItem) {
+            final CompositeItem compositeItem = (CompositeItem) item;
+            long weight = ITEM_WEIGHT;
+            for (final String key : compositeItem.getItemKeys()) {
+                weight += weigh(compositeItem.getItem(key));
+            }
+            return weight;
+        }
+
+        final boolean beanItem = item instanceof BeanItem;
+        long weight = ITEM_WEIGHT;
+        if (beanItem) {
+            weight += OBJECT_WEIGHT;
+        }
+        for (final Object propertyId : item.getItemPropertyIds()) {
+            weight += PROPERTY_WEIGHT;
+            if (beanItem && propertyId.toString().indexOf('.') > -1) {
+                continue;
+            }
+            final Property property = item.getItemProperty(propertyId);
+            weight += weighValue(property.getValue());
+        }
+        return weight;
+    }
+
+    /**
+     * Estimates the weight of property value.
+     *
+     * @param value The value.
+     * @return the estimated weight in bytes.
+     */
+    private static long weighValue(final Object value) {
+        if (value == null || value instanceof Enum) {
+            return 0;
+        }
+        if (value instanceof String) {
+            return STRING_WEIGHT + 2L * ((String) value).length();
+        }
+        if (value instanceof BigDecimal || value instanceof BigInteger) {
+            return BIG_NUMBER_WEIGHT;
+        }
+        if (value instanceof Number || value instanceof Boolean || value instanceof Character
+                || value instanceof Date) {
+            return BOXED_WEIGHT;
+        }
+        if (value instanceof byte[]) {
+            return OBJECT_WEIGHT + ((byte[]) value).length;
+        }
+        if (value instanceof char[]) {
+            return OBJECT_WEIGHT + 2L * ((char[]) value).length;
+        }
+        if (value instanceof Object[]) {
+            return OBJECT_WEIGHT + REFERENCE_WEIGHT * ((Object[]) value).length;
+        }
+        return OBJECT_WEIGHT;
+    }
+}
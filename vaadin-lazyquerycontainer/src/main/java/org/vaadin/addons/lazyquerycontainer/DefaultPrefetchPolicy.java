@@ -0,0 +1,92 @@
+/**
+ * Copyright 2010 Tommi S.E. Laukkanen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.lazyquerycontainer;
+
+/**
+ * Default prefetch policy. Prefetches the batches the user is expected to
+ * reach during look ahead time at current scroll velocity, at least one and
+ * at most max depth. Nothing is prefetched when velocity exceeds the drag
+ * velocity as the user is then dragging the scroll bar past the batches.
+ *
+ * @author Tommi S.E. Laukkanen
+ */
+public final class DefaultPrefetchPolicy implements PrefetchPolicy {
+    /**
+     * Java serialization version UID.
+     */
+    private static final long serialVersionUID = 1L;
+    /**
+     * Default maximum prefetch depth.
+     */
+    private static final int DEFAULT_MAX_DEPTH = 3;
+    /**
+     * Default look ahead time in milliseconds.
+     */
+    private static final long DEFAULT_LOOK_AHEAD_MILLIS = 1000;
+    /**
+     * Default velocity in batches per second above which scrolling is considered dragging.
+     */
+    private static final double DEFAULT_DRAG_VELOCITY = 20;
+    /**
+     * Milliseconds in second.
+     */
+    private static final double MILLIS_IN_SECOND = 1000;
+
+    /**
+     * Maximum number of batches to prefetch.
+     */
+    private final int maxDepth;
+    /**
+     * Look ahead time in milliseconds.
+     */
+    private final long lookAheadMillis;
+    /**
+     * Velocity in batches per second above which nothing is prefetched.
+     */
+    private final double dragVelocity;
+
+    /**
+     * Constructor which uses default max depth, look ahead time and drag velocity.
+     */
+    public DefaultPrefetchPolicy() {
+        this(DEFAULT_MAX_DEPTH, DEFAULT_LOOK_AHEAD_MILLIS, DEFAULT_DRAG_VELOCITY);
+    }
+
+    /**
+     * Constructor which sets max depth, look ahead time and drag velocity.
+     *
+     * @param maxDepth The maximum number of batches to prefetch.
+     * @param lookAheadMillis The look ahead time in milliseconds.
+     * @param dragVelocity The velocity in batches per second above which nothing is prefetched.
+     */
+    public DefaultPrefetchPolicy(final int maxDepth, final long lookAheadMillis, final double dragVelocity) {
+        this.maxDepth = maxDepth;
+        this.lookAheadMillis = lookAheadMillis;
+        this.dragVelocity = dragVelocity;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getPrefetchDepth(final int direction, final double batchesPerSecond) {
+        if (batchesPerSecond > dragVelocity) {
+            return 0;
+        }
+        final int depth = (int) Math.ceil(batchesPerSecond * lookAheadMillis / MILLIS_IN_SECOND);
+        return Math.max(1, Math.min(maxDepth, depth));
+    }
+}
@@ -15,6 +15,7 @@
  */
 package org.vaadin.addons.lazyquerycontainer;
 
+import com.vaadin.data.Item;
 import com.vaadin.data.util.BeanItem;
 
 import javax.persistence.EntityManager;
@@ -129,12 +130,15 @@ public final class EntityContainer<T> extends LazyQueryContainer {
      */
     @SuppressWarnings("unchecked")
     public T getEntity(final int index) {
-        if (getQueryView().getQueryDefinition().isCompositeItems()) {
-            final CompositeItem compositeItem = (CompositeItem) getItem(getIdByIndex(index));
+        final Item item = getItem(getIdByIndex(index));
+        if (item instanceof ProjectionItem) {
+            return (T) ((ProjectionItem) item).getEntity();
+        } else if (getQueryView().getQueryDefinition().isCompositeItems()) {
+            final CompositeItem compositeItem = (CompositeItem) item;
             final BeanItem<T> beanItem = (BeanItem<T>) compositeItem.getItem("bean");
             return beanItem.getBean();
         } else {
-            return ((BeanItem<T>) getItem(getIdByIndex(index))).getBean();
+            return ((BeanItem<T>) item).getBean();
         }
     }
 }
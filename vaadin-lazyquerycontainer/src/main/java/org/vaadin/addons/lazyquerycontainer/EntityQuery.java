@@ -18,17 +18,44 @@ package org.vaadin.addons.lazyquerycontainer;
 import com.vaadin.data.Container;
 import com.vaadin.data.Item;
 import com.vaadin.data.util.BeanItem;
+import com.vaadin.data.util.LazyNestedMethodProperty;
 import com.vaadin.data.util.ObjectProperty;
 import com.vaadin.data.util.filter.*;
 
+import javax.persistence.CascadeType;
+import javax.persistence.EntityListeners;
 import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.ManyToOne;
+import javax.persistence.OneToMany;
+import javax.persistence.OneToOne;
+import javax.persistence.PostRemove;
+import javax.persistence.PreRemove;
+import javax.persistence.Tuple;
 import javax.persistence.criteria.*;
+import javax.persistence.metamodel.Attribute;
+import javax.persistence.metamodel.ManagedType;
+import javax.persistence.metamodel.Metamodel;
+import javax.persistence.metamodel.SingularAttribute;
 import java.beans.BeanInfo;
 import java.beans.Introspector;
 import java.beans.PropertyDescriptor;
 import java.io.Serializable;
+import java.lang.reflect.AnnotatedElement;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * Entity query implementation which dynamically injects missing query
@@ -38,15 +65,36 @@ import java.util.List;
  *
  * @author Tommi S.E. Laukkanen
  */
-public class EntityQuery<E> implements Query, Serializable {
+public class EntityQuery<E> implements BulkDeleteQuery, PositionAwareQuery, IdLoadingQuery, ItemLookupQuery,
+        ConcurrentCountQuery, BackgroundLoadQuery, Serializable {
     /**
      * Java serialization version UID.
      */
     private static final long serialVersionUID = 1L;
     /**
-     * The JPA EntityManager.
+     * Maximum number of remembered keyset positions.
+     */
+    private static final int MAX_KEYSET_POSITIONS = 1000;
+    /**
+     * Name prefix of keyset value parameters.
+     */
+    private static final String KEYSET_PARAMETER_PREFIX = "keyset";
+    /**
+     * Name of item ID parameter of position lookup query.
+     */
+    private static final String ITEM_ID_PARAMETER = "itemId";
+    /**
+     * Number of entities removed per flush when entities have to be removed one by one.
+     */
+    private static final int DELETE_CHUNK_SIZE = 1000;
+    /**
+     * The JPA EntityManager or null if entity manager is opened per operation.
      */
     private final EntityManager entityManager;
+    /**
+     * The JPA EntityManagerFactory or null if shared entity manager is used.
+     */
+    private final EntityManagerFactory entityManagerFactory;
     /**
      * Flag reflecting whether application manages transactions.
      */
@@ -64,6 +112,54 @@ public class EntityQuery<E> implements Query, Serializable {
      * The size of the query.
      */
     private int querySize = -1;
+    /**
+     * Sort key values of the last loaded row by the index of the following row.
+     * Accessed while synchronized on the cache as batches may be loaded in parallel.
+     */
+    private final IntLruCache<Object[]> keysetPositions = new IntLruCache<Object[]>();
+    /**
+     * Name of the entity ID property or null if not resolved yet.
+     */
+    private String entityIdPropertyId;
+    /**
+     * First batch loaded in parallel with count query or null. Set and taken
+     * while synchronized on the query as it is loaded in another thread.
+     */
+    private transient volatile FirstBatch firstBatch;
+    /**
+     * True if sort properties can not be null and keyset predicates select
+     * all rows or null if not resolved yet.
+     */
+    private transient Boolean sortNotNullable;
+    /**
+     * Compiled plan of entity query or null if not compiled yet. Plans are
+     * accessed while synchronized on the query.
+     */
+    private transient Plan<E> entityPlan;
+    /**
+     * Compiled plan of keyset entity query or null if not compiled yet.
+     */
+    private transient Plan<E> keysetEntityPlan;
+    /**
+     * Compiled plan of projection query or null if not compiled yet.
+     */
+    private transient Plan<Tuple> projectionPlan;
+    /**
+     * Compiled plan of keyset projection query or null if not compiled yet.
+     */
+    private transient Plan<Tuple> keysetProjectionPlan;
+    /**
+     * Compiled plan of ID query or null if not compiled yet.
+     */
+    private transient Plan<Object> idPlan;
+    /**
+     * Compiled plan of query selecting sort values of an item or null if not compiled yet.
+     */
+    private transient Plan<Tuple> sortValuePlan;
+    /**
+     * Compiled plan of query counting items preceding sort values or null if not compiled yet.
+     */
+    private transient Plan<Long> precedingCountPlan;
 
     /**
      * Constructor for configuring the query.
@@ -71,129 +167,1167 @@ public class EntityQuery<E> implements Query, Serializable {
      * @param entityQueryDefinition The entity query definition.
      * @param entityManager The entity manager.
      */
-    public EntityQuery(final EntityQueryDefinition entityQueryDefinition, final EntityManager entityManager) {
-        this.entityManager = entityManager;
-        this.queryDefinition = entityQueryDefinition;
-        this.entityClass = (Class<E>) entityQueryDefinition.getEntityClass();
-        this.applicationTransactionManagement = entityQueryDefinition.isApplicationManagedTransactions();
+    public EntityQuery(final EntityQueryDefinition entityQueryDefinition, final EntityManager entityManager) {
+        this.entityManager = entityManager;
+        this.entityManagerFactory = null;
+        this.queryDefinition = entityQueryDefinition;
+        this.entityClass = (Class<E>) entityQueryDefinition.getEntityClass();
+        this.applicationTransactionManagement = entityQueryDefinition.isApplicationManagedTransactions();
+    }
+
+    /**
+     * Constructor for configuring the query to open short lived entity
+     * manager for each operation. Loaded entities are detached as soon as
+     * the batch has been loaded so persistence context does not grow while
+     * scrolling and batches can be loaded from several threads in parallel.
+     * Entities are merged to the entity manager of the commit when saved.
+     *
+     * @param entityQueryDefinition The entity query definition.
+     * @param entityManagerFactory The entity manager factory.
+     */
+    public EntityQuery(final EntityQueryDefinition entityQueryDefinition,
+                       final EntityManagerFactory entityManagerFactory) {
+        this.entityManager = null;
+        this.entityManagerFactory = entityManagerFactory;
+        this.queryDefinition = entityQueryDefinition;
+        this.entityClass = (Class<E>) entityQueryDefinition.getEntityClass();
+        this.applicationTransactionManagement = entityQueryDefinition.isApplicationManagedTransactions();
+    }
+
+    /**
+     * Gets entity manager for an operation.
+     *
+     * @return the shared entity manager or new entity manager.
+     */
+    private EntityManager openEntityManager() {
+        if (entityManager != null) {
+            return entityManager;
+        }
+        return entityManagerFactory.createEntityManager();
+    }
+
+    /**
+     * Joins entity manager opened for a modifying operation to the active
+     * JTA transaction when container manages transactions. Entity manager
+     * opened per operation is application managed and is not enlisted to
+     * the transaction if it was created outside of it, in which case the
+     * modifications would never be written.
+     *
+     * @param currentEntityManager the entity manager returned by openEntityManager
+     */
+    private void joinTransaction(final EntityManager currentEntityManager) {
+        if (!applicationTransactionManagement && currentEntityManager != entityManager) {
+            currentEntityManager.joinTransaction();
+        }
+    }
+
+    /**
+     * Closes entity manager of an operation unless it is the shared entity manager.
+     *
+     * @param currentEntityManager the entity manager returned by openEntityManager
+     */
+    private void closeEntityManager(final EntityManager currentEntityManager) {
+        if (currentEntityManager != entityManager) {
+            currentEntityManager.close();
+        }
+    }
+
+    /**
+     * @return the criteria builder.
+     */
+    private CriteriaBuilder getCriteriaBuilder() {
+        if (entityManager != null) {
+            return entityManager.getCriteriaBuilder();
+        }
+        return entityManagerFactory.getCriteriaBuilder();
+    }
+
+    /**
+     * @return the metamodel.
+     */
+    private Metamodel getMetamodel() {
+        if (entityManager != null) {
+            return entityManager.getMetamodel();
+        }
+        return entityManagerFactory.getMetamodel();
+    }
+
+    /**
+     * Constructs new item based on QueryDefinition.
+     *
+     * @return new item.
+     */
+    @Override
+    public final Item constructItem() {
+        try {
+            final Object entity = entityClass.newInstance();
+            final BeanInfo info = Introspector.getBeanInfo(entityClass);
+            for (final PropertyDescriptor pd : info.getPropertyDescriptors()) {
+                for (final Object propertyId : queryDefinition.getPropertyIds()) {
+                    if (pd.getName().equals(propertyId)) {
+                        pd.getWriteMethod().invoke(entity, queryDefinition.getPropertyDefaultValue(propertyId));
+                    }
+                }
+            }
+            return toItem(entity);
+        } catch (final Exception e) {
+            throw new RuntimeException("Error in bean construction or property population with default values.", e);
+        }
+    }
+
+    /**
+     * Number of beans returned by query.
+     *
+     * @return number of beans.
+     */
+    @Override
+    public final int size() {
+
+        if (querySize == -1) {
+            if (queryDefinition.getBatchSize() == 0) {
+                return 0;
+            }
+
+            if (firstBatch == null && entityManagerFactory != null
+                    && queryDefinition.getFirstBatchExecutor() != null) {
+                scheduleFirstBatch(queryDefinition.getFirstBatchExecutor(), queryDefinition.getBatchSize());
+            }
+
+            final EntityManager currentEntityManager = openEntityManager();
+            try {
+                querySize = countItems(currentEntityManager);
+            } finally {
+                closeEntityManager(currentEntityManager);
+            }
+        }
+        return querySize;
+    }
+
+    /**
+     * Count can run concurrently with loading items only when each operation
+     * opens its own entity manager.
+     *
+     * @return true if query was constructed with entity manager factory.
+     */
+    @Override
+    public final boolean isConcurrentCountSupported() {
+        return entityManagerFactory != null;
+    }
+
+    /**
+     * Items can be loaded in background only when each operation opens its
+     * own entity manager. A shared entity manager may be bound to the request
+     * thread and its transaction.
+     *
+     * @return true if query was constructed with entity manager factory.
+     */
+    @Override
+    public final boolean isBackgroundLoadSupported() {
+        return entityManagerFactory != null;
+    }
+
+    /**
+     * Schedules loading of the first batch with its own entity manager so
+     * that it runs in parallel with the count query. The plan of the batch
+     * is compiled before the task is submitted so that the threads do not
+     * race on it.
+     *
+     * @param executor the executor
+     * @param count the number of items to load
+     */
+    private void scheduleFirstBatch(final Executor executor, final int count) {
+        if (queryDefinition.isProjectionItems()) {
+            getProjectionPlan(false);
+        } else {
+            getEntityPlan(false);
+        }
+        final FirstBatch task = new FirstBatch(new Callable<List<Item>>() {
+            @Override
+            public List<Item> call() {
+                final EntityManager currentEntityManager = openEntityManager();
+                try {
+                    return loadItems(currentEntityManager, 0, count);
+                } finally {
+                    closeEntityManager(currentEntityManager);
+                }
+            }
+        }, count);
+        synchronized (this) {
+            firstBatch = task;
+        }
+        try {
+            executor.execute(task);
+        } catch (final RejectedExecutionException e) {
+            // First batch is loaded when requested.
+            removeFirstBatch();
+        }
+    }
+
+    /**
+     * Removes the first batch so that it is taken by single caller only.
+     *
+     * @return the first batch or null if there is none.
+     */
+    private synchronized FirstBatch removeFirstBatch() {
+        final FirstBatch batch = firstBatch;
+        firstBatch = null;
+        return batch;
+    }
+
+    /**
+     * Takes first batch loaded in parallel with count query if it covers the
+     * requested items. The first batch is discarded on any load so that
+     * stale items are never served.
+     *
+     * @param startIndex Starting index of the item list.
+     * @param count Count of the items to be retrieved.
+     * @return the items or null if they have to be loaded.
+     */
+    private List<Item> takeFirstBatch(final int startIndex, final int count) {
+        if (firstBatch == null) {
+            return null;
+        }
+        final FirstBatch batch = removeFirstBatch();
+        if (batch == null) {
+            return null;
+        }
+        if (startIndex != 0 || count > batch.count) {
+            batch.cancel(false);
+            return null;
+        }
+        try {
+            final List<Item> items = batch.get();
+            if (items.size() > count) {
+                return new ArrayList<Item>(items.subList(0, count));
+            }
+            return items;
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (final ExecutionException e) {
+            // Load again in calling thread to report the failure there.
+            return null;
+        }
+    }
+
+    /**
+     * Counts items matching the filters. If maximum query size has been set
+     * the row following the maximum is probed first and the count query is
+     * run only if the result is smaller than the maximum.
+     *
+     * @param currentEntityManager the entity manager of the operation
+     * @return number of items or the maximum query size if there are more items.
+     */
+    private int countItems(final EntityManager currentEntityManager) {
+        final int maxQuerySize = queryDefinition.getMaxQuerySize();
+        if (maxQuerySize > -1 && exists(currentEntityManager, maxQuerySize)) {
+            return maxQuerySize;
+        }
+
+        final CriteriaBuilder cb = getCriteriaBuilder();
+        final CriteriaQuery<Long> cq = cb.createQuery(Long.class);
+        final Root<E> root = cq.from(entityClass);
+
+        cq.select(cb.count(root));
+
+        setWhereCriteria(cb, cq, root, null);
+
+        final javax.persistence.Query query = currentEntityManager.createQuery(cq);
+
+        return ((Number) query.getSingleResult()).intValue();
+    }
+
+    /**
+     * Checks whether item exists at given index without ordering the rows.
+     * Constant is selected instead of the entity so that the probed row is
+     * neither read into the persistence context nor are its columns fetched.
+     *
+     * @param currentEntityManager the entity manager of the operation
+     * @param index the index
+     * @return true if item exists at the index.
+     */
+    private boolean exists(final EntityManager currentEntityManager, final int index) {
+        final CriteriaBuilder cb = getCriteriaBuilder();
+        final CriteriaQuery<Integer> cq = cb.createQuery(Integer.class);
+        final Root<E> root = cq.from(entityClass);
+
+        cq.select(cb.literal(1));
+
+        setWhereCriteria(cb, cq, root, null);
+
+        final javax.persistence.TypedQuery<Integer> query = currentEntityManager.createQuery(cq);
+
+        query.setFirstResult(index);
+        query.setMaxResults(1);
+
+        return !query.getResultList().isEmpty();
+    }
+
+    /**
+     * Load batch of items.
+     *
+     * @param startIndex Starting index of the item list.
+     * @param count      Count of the items to be retrieved.
+     * @return List of items.
+     */
+    @Override
+    public final List<Item> loadItems(final int startIndex, final int count) {
+        final List<Item> firstBatchItems = takeFirstBatch(startIndex, count);
+        if (firstBatchItems != null) {
+            return firstBatchItems;
+        }
+        final EntityManager currentEntityManager = openEntityManager();
+        try {
+            return loadItems(currentEntityManager, startIndex, count);
+        } finally {
+            closeEntityManager(currentEntityManager);
+        }
+    }
+
+    /**
+     * Load batch of items with given entity manager.
+     *
+     * @param currentEntityManager the entity manager of the operation
+     * @param startIndex Starting index of the item list.
+     * @param count      Count of the items to be retrieved.
+     * @return List of items.
+     */
+    private List<Item> loadItems(final EntityManager currentEntityManager, final int startIndex,
+                                 final int count) {
+        // Seek after last row of previous batch if its sort key values are known.
+        Object[] keysetValues = null;
+        if (startIndex > 0 && isKeysetPaging()) {
+            synchronized (keysetPositions) {
+                keysetValues = keysetPositions.get(startIndex);
+            }
+        }
+
+        if (queryDefinition.isProjectionItems()) {
+            return loadProjectionItems(currentEntityManager, startIndex, count, keysetValues);
+        }
+
+        final Plan<E> plan = getEntityPlan(keysetValues != null);
+        final javax.persistence.TypedQuery<E> query = plan.createQuery(currentEntityManager, keysetValues);
+
+        query.setFirstResult(keysetValues != null ? 0 : startIndex);
+        query.setMaxResults(count);
+
+        final List<?> entities = query.getResultList();
+        if (isKeysetPaging() && entities.size() > 0) {
+            final Object[] sortPropertyIds = getSortPropertyIds();
+            final Object lastEntity = entities.get(entities.size() - 1);
+            final Object[] lastValues = new Object[sortPropertyIds.length];
+            for (int i = 0; i < sortPropertyIds.length; i++) {
+                lastValues[i] = new LazyNestedMethodProperty<Object>(lastEntity, (String) sortPropertyIds[i])
+                        .getValue();
+            }
+            rememberKeysetPosition(startIndex + entities.size(), lastValues);
+        }
+        final List<Item> items = new ArrayList<Item>();
+        for (final Object entity : entities) {
+            if (queryDefinition.isDetachedEntities() && currentEntityManager == entityManager) {
+                entityManager.detach(entity);
+            }
+            items.add(toItem(entity));
+        }
+
+        return items;
+    }
+
+    /**
+     * Loads IDs of items by selecting only the ID property.
+     *
+     * @param startIndex Starting index of the item ID list.
+     * @param count Count of the item IDs to be retrieved.
+     * @return List of item IDs.
+     */
+    @Override
+    public final List<?> loadIds(final int startIndex, final int count) {
+        if (queryDefinition.getIdPropertyId() == null) {
+            throw new UnsupportedOperationException("ID property is required for loading IDs.");
+        }
+        final Plan<Object> plan = getIdPlan();
+        final EntityManager currentEntityManager = openEntityManager();
+        try {
+            final javax.persistence.TypedQuery<Object> query = plan.createQuery(currentEntityManager, null);
+            query.setFirstResult(startIndex);
+            query.setMaxResults(count);
+            return query.getResultList();
+        } finally {
+            closeEntityManager(currentEntityManager);
+        }
+    }
+
+    /**
+     * Gets compiled plan of ID query.
+     *
+     * @return the plan
+     */
+    private synchronized Plan<Object> getIdPlan() {
+        if (idPlan == null) {
+            final CriteriaBuilder cb = getCriteriaBuilder();
+            final CriteriaQuery<Object> cq = cb.createQuery(Object.class);
+            final Root<E> root = cq.from(entityClass);
+
+            cq.select(getPropertyPath(root, queryDefinition.getIdPropertyId()));
+
+            final Plan<Object> plan = new Plan<Object>(cq);
+            compilePlan(cb, cq, root, plan, false);
+            idPlan = plan;
+        }
+        return idPlan;
+    }
+
+    /**
+     * Loads item by ID. Entity manager find is used if there are no filters
+     * and ID property is the entity ID. Otherwise the entity is selected with
+     * ID predicate combined with the filters. In entity manager per operation
+     * mode the entity is selected also when there are nested property IDs so
+     * that their associations are fetch joined.
+     *
+     * @param itemId the item ID
+     * @return the item or null if query does not contain the item.
+     */
+    @Override
+    public final Item loadItemById(final Object itemId) {
+        final Object idPropertyId = queryDefinition.getIdPropertyId();
+        if (idPropertyId == null) {
+            throw new UnsupportedOperationException("ID property is required for loading item by ID.");
+        }
+        final EntityManager currentEntityManager = openEntityManager();
+        try {
+            final Object entity;
+            if (getRootFilter() == null && idPropertyId.equals(getEntityIdPropertyId())
+                    && !(entityManagerFactory != null && hasNestedPropertyIds())) {
+                entity = currentEntityManager.find(entityClass, itemId);
+            } else {
+                final CriteriaBuilder cb = getCriteriaBuilder();
+                final CriteriaQuery<E> cq = cb.createQuery(entityClass);
+                final Root<E> root = cq.from(entityClass);
+                cq.select(root);
+                if (isFetchJoins()) {
+                    setFetchJoins(root);
+                }
+                setWhereCriteria(cb, cq, root, cb.equal(getPropertyPath(root, idPropertyId), itemId));
+                final List<E> entities = currentEntityManager.createQuery(cq).setMaxResults(1).getResultList();
+                entity = entities.isEmpty() ? null : entities.get(0);
+            }
+            if (entity == null) {
+                return null;
+            }
+            if (queryDefinition.isDetachedEntities() && currentEntityManager == entityManager) {
+                entityManager.detach(entity);
+            }
+            return toItem(entity);
+        } finally {
+            closeEntityManager(currentEntityManager);
+        }
+    }
+
+    /**
+     * Gets compiled plan of entity query. Plans are compiled on first use
+     * and reused by the following batch loads of this query as the filters
+     * and sort state do not change during the lifetime of the query. Plans
+     * are compiled and published while holding the query monitor so that
+     * batches loaded in parallel only see fully built plans.
+     *
+     * @param keyset true if plan of keyset query is requested
+     * @return the plan
+     */
+    private synchronized Plan<E> getEntityPlan(final boolean keyset) {
+        Plan<E> plan = keyset ? keysetEntityPlan : entityPlan;
+        if (plan == null) {
+            final CriteriaBuilder cb = getCriteriaBuilder();
+            final CriteriaQuery<E> cq = cb.createQuery(entityClass);
+            final Root<E> root = cq.from(entityClass);
+
+            cq.select(root);
+
+            if (isFetchJoins()) {
+                setFetchJoins(root);
+            }
+
+            plan = new Plan<E>(cq);
+            compilePlan(cb, cq, root, plan, keyset);
+            if (keyset) {
+                keysetEntityPlan = plan;
+            } else {
+                entityPlan = plan;
+            }
+        }
+        return plan;
+    }
+
+    /**
+     * Sets where criteria and order clause of plan.
+     *
+     * @param cb the CriteriaBuilder
+     * @param cq the CriteriaQuery
+     * @param root the root
+     * @param plan the plan
+     * @param keyset true if keyset predicate is to be added
+     * @param <SE> the selected entity
+     */
+    private <SE> void compilePlan(final CriteriaBuilder cb, final CriteriaQuery<SE> cq, final Root<E> root,
+                                  final Plan<SE> plan, final boolean keyset) {
+        final Object[] sortPropertyIds = getSortPropertyIds();
+        final boolean[] sortPropertyAscendingStates = getSortPropertyAscendingStates();
+        if (keyset) {
+            setWhereCriteria(cb, cq, root, getKeysetPredicate(cb, root, sortPropertyIds,
+                    sortPropertyAscendingStates, plan, true));
+        } else {
+            setWhereCriteria(cb, cq, root, null);
+        }
+        setOrderClause(cb, cq, root, sortPropertyIds, sortPropertyAscendingStates);
+    }
+
+    /**
+     * Checks whether associations on the way to nested property IDs are
+     * fetch joined. Fetch joins are always used when entity manager is opened
+     * per operation as lazy associations can not be loaded after the entity
+     * manager of the batch has been closed.
+     *
+     * @return true if fetch joins are used.
+     */
+    private boolean isFetchJoins() {
+        return queryDefinition.isFetchJoins() || entityManagerFactory != null;
+    }
+
+    /**
+     * Checks whether query definition contains nested property IDs.
+     *
+     * @return true if there are nested property IDs.
+     */
+    private boolean hasNestedPropertyIds() {
+        for (final Object propertyId : queryDefinition.getPropertyIds()) {
+            if (propertyId instanceof String && ((String) propertyId).indexOf('.') >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Adds left fetch joins for the associations on the way to nested
+     * property IDs so that nested property values do not trigger lazy loads
+     * row by row. Only single valued associations are fetched as fetching
+     * collections would multiply rows and break batch boundaries. Fetch joins
+     * are shared between property IDs with common prefix.
+     *
+     * @param root the root
+     */
+    private void setFetchJoins(final Root<E> root) {
+        final Metamodel metamodel = getMetamodel();
+        final Map<String, FetchParent<?, ?>> fetches = new HashMap<String, FetchParent<?, ?>>();
+        for (final Object propertyId : queryDefinition.getPropertyIds()) {
+            if (!(propertyId instanceof String) || ((String) propertyId).indexOf('.') < 0) {
+                continue;
+            }
+            final String[] propertyIdParts = ((String) propertyId).split("\\.");
+            ManagedType<?> type = metamodel.managedType(entityClass);
+            FetchParent<?, ?> parent = root;
+            final StringBuilder fetchPath = new StringBuilder();
+            for (int i = 0; i < propertyIdParts.length - 1; i++) {
+                final Attribute<?, ?> attribute;
+                try {
+                    attribute = type.getAttribute(propertyIdParts[i]);
+                } catch (final IllegalArgumentException e) {
+                    break;
+                }
+                if (!attribute.isAssociation() || attribute.isCollection()) {
+                    break;
+                }
+                fetchPath.append(propertyIdParts[i]).append('.');
+                FetchParent<?, ?> fetch = fetches.get(fetchPath.toString());
+                if (fetch == null) {
+                    fetch = parent.fetch(propertyIdParts[i], JoinType.LEFT);
+                    fetches.put(fetchPath.toString(), fetch);
+                }
+                parent = fetch;
+                type = metamodel.managedType(attribute.getJavaType());
+            }
+        }
+    }
+
+    /**
+     * Loads batch of projection items.
+     *
+     * @param currentEntityManager the entity manager of the operation
+     * @param startIndex Starting index of the item list.
+     * @param count Count of the items to be retrieved.
+     * @param keysetValues the sort key values of the row preceding start index or null if offset is used
+     * @return List of items.
+     */
+    @SuppressWarnings({"rawtypes", "unchecked" })
+    private List<Item> loadProjectionItems(final EntityManager currentEntityManager, final int startIndex,
+                                           final int count, final Object[] keysetValues) {
+        final Plan<Tuple> plan = getProjectionPlan(keysetValues != null);
+        final javax.persistence.TypedQuery<Tuple> query = plan.createQuery(currentEntityManager, keysetValues);
+
+        query.setFirstResult(keysetValues != null ? 0 : startIndex);
+        query.setMaxResults(count);
+
+        final List<Tuple> tuples = query.getResultList();
+
+        final Collection<?> propertyIds = queryDefinition.getPropertyIds();
+        final List<Item> items = new ArrayList<Item>();
+        for (final Tuple tuple : tuples) {
+            final ProjectionItem item = new ProjectionItem(this, tuple.get(0));
+            int propertyIndex = 0;
+            for (final Object propertyId : propertyIds) {
+                final int selectionIndex = plan.selectionIndexes[propertyIndex++];
+                if (selectionIndex >= 0) {
+                    item.addProjectedProperty(propertyId, new ObjectProperty(tuple.get(selectionIndex),
+                            queryDefinition.getPropertyType(propertyId),
+                            queryDefinition.isPropertyReadOnly(propertyId)));
+                } else {
+                    item.addItemProperty(propertyId, new ObjectProperty(
+                            queryDefinition.getPropertyDefaultValue(propertyId),
+                            queryDefinition.getPropertyType(propertyId),
+                            queryDefinition.isPropertyReadOnly(propertyId)));
+                }
+            }
+            items.add(item);
+        }
+
+        if (isKeysetPaging() && tuples.size() > 0) {
+            final Object[] sortPropertyIds = getSortPropertyIds();
+            final Tuple lastTuple = tuples.get(tuples.size() - 1);
+            final Object[] lastValues = new Object[sortPropertyIds.length];
+            for (int i = 0; i < sortPropertyIds.length; i++) {
+                final int selectionIndex = plan.selectedPropertyIds.indexOf(sortPropertyIds[i]);
+                lastValues[i] = selectionIndex >= 0 ? lastTuple.get(selectionIndex) : null;
+            }
+            rememberKeysetPosition(startIndex + tuples.size(), lastValues);
+        }
+
+        return items;
+    }
+
+    /**
+     * Gets compiled plan of projection query. Only the entity ID, the
+     * declared properties and the sort properties are selected. Associations
+     * on the way to nested properties are left joined so that rows with null
+     * associations are not dropped.
+     *
+     * @param keyset true if plan of keyset query is requested
+     * @return the plan
+     */
+    private synchronized Plan<Tuple> getProjectionPlan(final boolean keyset) {
+        Plan<Tuple> plan = keyset ? keysetProjectionPlan : projectionPlan;
+        if (plan == null) {
+            final CriteriaBuilder cb = getCriteriaBuilder();
+            final CriteriaQuery<Tuple> cq = cb.createTupleQuery();
+            final Root<E> root = cq.from(entityClass);
+
+            final Set<String> candidatePropertyIds = new LinkedHashSet<String>();
+            candidatePropertyIds.add(getEntityIdPropertyId());
+            for (final Object propertyId : queryDefinition.getPropertyIds()) {
+                if (propertyId instanceof String) {
+                    candidatePropertyIds.add((String) propertyId);
+                }
+            }
+            for (final Object sortPropertyId : getSortPropertyIds()) {
+                candidatePropertyIds.add((String) sortPropertyId);
+            }
+
+            plan = new Plan<Tuple>(cq);
+            final Map<String, From<?, ?>> joins = new HashMap<String, From<?, ?>>();
+            final List<Selection<?>> selections = new ArrayList<Selection<?>>();
+            for (final String propertyId : candidatePropertyIds) {
+                final Path<?> path = getProjectionPath(root, joins, propertyId);
+                if (path != null) {
+                    plan.selectedPropertyIds.add(propertyId);
+                    selections.add(path);
+                }
+            }
+            cq.multiselect(selections);
+
+            final Collection<?> propertyIds = queryDefinition.getPropertyIds();
+            plan.selectionIndexes = new int[propertyIds.size()];
+            int propertyIndex = 0;
+            for (final Object propertyId : propertyIds) {
+                plan.selectionIndexes[propertyIndex++] = plan.selectedPropertyIds.indexOf(propertyId);
+            }
+
+            compilePlan(cb, cq, root, plan, keyset);
+            if (keyset) {
+                keysetProjectionPlan = plan;
+            } else {
+                projectionPlan = plan;
+            }
+        }
+        return plan;
+    }
+
+    /**
+     * Gets path of a property for projection query. Associations on the way
+     * are joined with left join and the joins are shared between properties.
+     *
+     * @param root the root
+     * @param joins the joins by association property path
+     * @param propertyId the property ID
+     * @return the path or null if property is not a persistent attribute of the entity.
+     * @throws UnsupportedOperationException if property path traverses collection or association of embeddable.
+     */
+    private Path<?> getProjectionPath(final Root<E> root, final Map<String, From<?, ?>> joins,
+                                      final String propertyId) {
+        final Metamodel metamodel = getMetamodel();
+        final String[] propertyIdParts = propertyId.split("\\.");
+        ManagedType<?> type = metamodel.managedType(entityClass);
+        From<?, ?> from = root;
+        Path<?> path = root;
+        final StringBuilder joinPath = new StringBuilder();
+        for (int i = 0; i < propertyIdParts.length; i++) {
+            final Attribute<?, ?> attribute;
+            try {
+                attribute = type.getAttribute(propertyIdParts[i]);
+            } catch (final IllegalArgumentException e) {
+                if (i == 0) {
+                    return null;
+                }
+                throw new UnsupportedOperationException("Property can not be projected: " + propertyId, e);
+            }
+            if (attribute.isCollection()) {
+                throw new UnsupportedOperationException("Collection property can not be projected: "
+                        + propertyId);
+            }
+            if (i == propertyIdParts.length - 1) {
+                return path.get(propertyIdParts[i]);
+            }
+            joinPath.append(propertyIdParts[i]).append('.');
+            if (attribute.isAssociation()) {
+                if (path != from) {
+                    throw new UnsupportedOperationException("Association of embeddable can not be projected: "
+                            + propertyId);
+                }
+                From<?, ?> join = joins.get(joinPath.toString());
+                if (join == null) {
+                    join = from.join(propertyIdParts[i], JoinType.LEFT);
+                    joins.put(joinPath.toString(), join);
+                }
+                from = join;
+                path = join;
+            } else {
+                path = path.get(propertyIdParts[i]);
+            }
+            type = metamodel.managedType(attribute.getJavaType());
+        }
+        return path;
+    }
+
+    /**
+     * Finds entity by ID. Used by projection items to load their entity.
+     * Entity is detached if entity manager is opened per operation.
+     *
+     * @param entityId the entity ID
+     * @return the entity or null if not found.
+     */
+    final E findEntity(final Object entityId) {
+        final EntityManager currentEntityManager = openEntityManager();
+        try {
+            return currentEntityManager.find(entityClass, entityId);
+        } finally {
+            closeEntityManager(currentEntityManager);
+        }
+    }
+
+    /**
+     * Gets index of the item with given ID by counting the items preceding it
+     * in sort order with entity ID as tie breaker. The index is exact if sort
+     * order is unique, for example in keyset paging mode. Position is not
+     * resolved if any of the sort properties can be null as the count
+     * predicate does not select rows with null sort values.
+     *
+     * @param itemId the item ID
+     * @return the index, -1 if query does not contain the item or
+     *         UNKNOWN_INDEX if position could not be resolved.
+     */
+    @Override
+    public final int indexOf(final Object itemId) {
+        if (queryDefinition.getIdPropertyId() == null || itemId == null || !isSortNotNullable()) {
+            return UNKNOWN_INDEX;
+        }
+        final EntityManager currentEntityManager = openEntityManager();
+        try {
+            return indexOf(currentEntityManager, itemId);
+        } finally {
+            closeEntityManager(currentEntityManager);
+        }
+    }
+
+    /**
+     * Gets index of the item with given ID with given entity manager.
+     *
+     * @param currentEntityManager the entity manager of the operation
+     * @param itemId the item ID
+     * @return the index, -1 if query does not contain the item or
+     *         UNKNOWN_INDEX if position could not be resolved.
+     */
+    private int indexOf(final EntityManager currentEntityManager, final Object itemId) {
+        final javax.persistence.TypedQuery<Tuple> sortValueQuery = getSortValuePlan()
+                .createQuery(currentEntityManager, null);
+        sortValueQuery.setParameter(ITEM_ID_PARAMETER, itemId);
+        final List<Tuple> tuples = sortValueQuery.setMaxResults(1).getResultList();
+        if (tuples.isEmpty()) {
+            return -1;
+        }
+
+        final Object[] sortValues = tuples.get(0).toArray();
+        for (final Object sortValue : sortValues) {
+            if (!(sortValue instanceof Comparable)) {
+                return UNKNOWN_INDEX;
+            }
+        }
+        return getPrecedingCountPlan().createQuery(currentEntityManager, sortValues).getSingleResult().intValue();
+    }
+
+    /**
+     * Gets compiled plan of query selecting the sort values of the item with
+     * ID given as parameter. Only the values are selected so that the entity
+     * is not loaded to the persistence context.
+     *
+     * @return the plan
+     */
+    private synchronized Plan<Tuple> getSortValuePlan() {
+        if (sortValuePlan == null) {
+            final CriteriaBuilder cb = getCriteriaBuilder();
+            final CriteriaQuery<Tuple> cq = cb.createTupleQuery();
+            final Root<E> root = cq.from(entityClass);
+
+            final List<Selection<?>> selections = new ArrayList<Selection<?>>();
+            for (final Object sortPropertyId : getSortPropertyIds(true)) {
+                selections.add(getPropertyPath(root, sortPropertyId));
+            }
+            cq.multiselect(selections);
+
+            final Path<Object> idPath = getPropertyPath(root, queryDefinition.getIdPropertyId());
+            setWhereCriteria(cb, cq, root, cb.equal(idPath,
+                    cb.parameter(toObjectType(idPath.getJavaType()), ITEM_ID_PARAMETER)));
+            sortValuePlan = new Plan<Tuple>(cq);
+        }
+        return sortValuePlan;
+    }
+
+    /**
+     * Gets compiled plan of query counting the items preceding the sort
+     * values given as keyset parameters.
+     *
+     * @return the plan
+     */
+    private synchronized Plan<Long> getPrecedingCountPlan() {
+        if (precedingCountPlan == null) {
+            final CriteriaBuilder cb = getCriteriaBuilder();
+            final CriteriaQuery<Long> cq = cb.createQuery(Long.class);
+            final Root<E> root = cq.from(entityClass);
+            cq.select(cb.count(root));
+
+            final Plan<Long> plan = new Plan<Long>(cq);
+            setWhereCriteria(cb, cq, root, getKeysetPredicate(cb, root, getSortPropertyIds(true),
+                    getSortPropertyAscendingStates(true), plan, false));
+            precedingCountPlan = plan;
+        }
+        return precedingCountPlan;
+    }
+
+    /**
+     * Sets where criteria of JPA 2.0 Criteria API query according to Vaadin filters.
+     * @param cb the CriteriaBuilder
+     * @param cq the CriteriaQuery
+     * @param root the root
+     * @param additionalPredicate the predicate to be combined with filters or null
+     * @param <SE> the selected entity
+     */
+    private <SE> void setWhereCriteria(final CriteriaBuilder cb, final CriteriaQuery<SE> cq, final Root<E> root,
+                                       final Predicate additionalPredicate) {
+        final Container.Filter rootFilter = getRootFilter();
+
+        if (rootFilter != null && additionalPredicate != null) {
+            cq.where(cb.and(setFilter(rootFilter, cb, cq, root), additionalPredicate));
+        } else if (rootFilter != null) {
+            cq.where(setFilter(rootFilter, cb, cq, root));
+        } else if (additionalPredicate != null) {
+            cq.where(additionalPredicate);
+        }
+    }
+
+    /**
+     * Combines default filters and filters to single filter.
+     *
+     * @return the combined filter or null if there are no filters.
+     */
+    private Container.Filter getRootFilter() {
+        final List<Container.Filter> filters = new ArrayList<Container.Filter>();
+        filters.addAll(queryDefinition.getDefaultFilters());
+        filters.addAll(queryDefinition.getFilters());
+
+        Container.Filter rootFilter;
+        if (filters.size() > 0) {
+            rootFilter = filters.remove(0);
+        } else {
+            rootFilter = null;
+        }
+        while (filters.size() > 0) {
+            final Container.Filter filter = filters.remove(0);
+            rootFilter = new And(rootFilter, filter);
+        }
+        return rootFilter;
+    }
+
+    /**
+     * Gets IDs of the properties participating in sort. Default sort is used
+     * if sort has not been set. In keyset paging mode the entity ID property
+     * is appended as tie breaker.
+     *
+     * @return the sort property IDs
+     */
+    private Object[] getSortPropertyIds() {
+        return getSortPropertyIds(queryDefinition.isKeysetPaging());
+    }
+
+    /**
+     * Gets IDs of the properties participating in sort. Default sort is used
+     * if sort has not been set.
+     *
+     * @param tieBreaker true if entity ID property is to be appended as tie breaker
+     * @return the sort property IDs
+     */
+    private Object[] getSortPropertyIds(final boolean tieBreaker) {
+        final Object[] sortPropertyIds;
+        if (queryDefinition.getSortPropertyIds().length == 0) {
+            sortPropertyIds = queryDefinition.getDefaultSortPropertyIds();
+        } else {
+            sortPropertyIds = queryDefinition.getSortPropertyIds();
+        }
+        if (!tieBreaker) {
+            return sortPropertyIds;
+        }
+        final String idPropertyId = getEntityIdPropertyId();
+        for (final Object sortPropertyId : sortPropertyIds) {
+            if (idPropertyId.equals(sortPropertyId)) {
+                return sortPropertyIds;
+            }
+        }
+        final Object[] keysetPropertyIds = new Object[sortPropertyIds.length + 1];
+        System.arraycopy(sortPropertyIds, 0, keysetPropertyIds, 0, sortPropertyIds.length);
+        keysetPropertyIds[sortPropertyIds.length] = idPropertyId;
+        return keysetPropertyIds;
+    }
+
+    /**
+     * Gets sort states of the properties returned by getSortPropertyIds.
+     *
+     * @return the sort states, true meaning ascending.
+     */
+    private boolean[] getSortPropertyAscendingStates() {
+        return getSortPropertyAscendingStates(queryDefinition.isKeysetPaging());
+    }
+
+    /**
+     * Gets sort states of the properties returned by getSortPropertyIds.
+     *
+     * @param tieBreaker true if entity ID property is appended as tie breaker
+     * @return the sort states, true meaning ascending.
+     */
+    private boolean[] getSortPropertyAscendingStates(final boolean tieBreaker) {
+        final boolean[] sortPropertyAscendingStates;
+        if (queryDefinition.getSortPropertyIds().length == 0) {
+            sortPropertyAscendingStates = queryDefinition.getDefaultSortPropertyAscendingStates();
+        } else {
+            sortPropertyAscendingStates = queryDefinition.getSortPropertyAscendingStates();
+        }
+        final int sortPropertyCount = getSortPropertyIds(tieBreaker).length;
+        if (sortPropertyAscendingStates.length == sortPropertyCount) {
+            return sortPropertyAscendingStates;
+        }
+        final boolean[] keysetAscendingStates = new boolean[sortPropertyCount];
+        System.arraycopy(sortPropertyAscendingStates, 0, keysetAscendingStates, 0,
+                sortPropertyAscendingStates.length);
+        keysetAscendingStates[sortPropertyCount - 1] = true;
+        return keysetAscendingStates;
     }
 
     /**
-     * Constructs new item based on QueryDefinition.
+     * Gets name of the entity ID property used as keyset tie breaker and to
+     * load entities of projection items. Query definition ID property is used
+     * if set, otherwise ID attribute is resolved from metamodel.
      *
-     * @return new item.
+     * @return the ID property name.
      */
-    @Override
-    public final Item constructItem() {
-        try {
-            final Object entity = entityClass.newInstance();
-            final BeanInfo info = Introspector.getBeanInfo(entityClass);
-            for (final PropertyDescriptor pd : info.getPropertyDescriptors()) {
-                for (final Object propertyId : queryDefinition.getPropertyIds()) {
-                    if (pd.getName().equals(propertyId)) {
-                        pd.getWriteMethod().invoke(entity, queryDefinition.getPropertyDefaultValue(propertyId));
+    private String getEntityIdPropertyId() {
+        if (entityIdPropertyId == null) {
+            if (queryDefinition.getIdPropertyId() != null) {
+                entityIdPropertyId = (String) queryDefinition.getIdPropertyId();
+            } else {
+                for (final Attribute<? super E, ?> attribute
+                        : getMetamodel().entity(entityClass).getAttributes()) {
+                    if (attribute instanceof SingularAttribute && ((SingularAttribute<?, ?>) attribute).isId()) {
+                        entityIdPropertyId = attribute.getName();
+                        break;
                     }
                 }
+                if (entityIdPropertyId == null) {
+                    throw new UnsupportedOperationException("Single ID attribute required in: "
+                            + entityClass.getName());
+                }
             }
-            return toItem(entity);
-        } catch (final Exception e) {
-            throw new RuntimeException("Error in bean construction or property population with default values.", e);
         }
+        return entityIdPropertyId;
     }
 
     /**
-     * Number of beans returned by query.
+     * Constructs predicate selecting rows which follow the sort key values of
+     * the last row of previous batch in sort order:
+     * (k1 > v1) or (k1 = v1 and k2 > v2) or ... or rows which precede the
+     * sort key values if following is false. The values are parameters
+     * bound by the plan when query is created.
      *
-     * @return number of beans.
+     * @param cb the CriteriaBuilder
+     * @param root the root
+     * @param sortPropertyIds the sort property IDs
+     * @param sortPropertyAscendingStates the sort states
+     * @param plan the plan binding the parameters
+     * @param following true to select following rows, false to select preceding rows
+     * @return the predicate
      */
-    @Override
-    public final int size() {
-
-        if (querySize == -1) {
-            if (queryDefinition.getBatchSize() == 0) {
-                return 0;
+    @SuppressWarnings({"rawtypes", "unchecked" })
+    private Predicate getKeysetPredicate(final CriteriaBuilder cb, final Root<E> root,
+                                         final Object[] sortPropertyIds, final boolean[] sortPropertyAscendingStates,
+                                         final Plan<?> plan, final boolean following) {
+        final List<Predicate> alternatives = new ArrayList<Predicate>();
+        final List<Predicate> equalities = new ArrayList<Predicate>();
+        for (int i = 0; i < sortPropertyIds.length; i++) {
+            final Expression property = (Expression) getPropertyPath(root, sortPropertyIds[i]);
+            final Expression value = cb.parameter(toObjectType(property.getJavaType()),
+                    KEYSET_PARAMETER_PREFIX + i);
+            final Predicate beyond;
+            if (sortPropertyAscendingStates[i] == following) {
+                beyond = cb.greaterThan(property, value);
+            } else {
+                beyond = cb.lessThan(property, value);
             }
-
-            final CriteriaBuilder cb = entityManager.getCriteriaBuilder();
-            final CriteriaQuery<Long> cq = cb.createQuery(Long.class);
-            final Root<E> root = cq.from(entityClass);
-
-            cq.select(cb.count(root));
-
-            setWhereCriteria(cb, cq, root);
-
-            final javax.persistence.Query query = entityManager.createQuery(cq);
-
-            querySize = ((Number) query.getSingleResult()).intValue();
+            final List<Predicate> alternative = new ArrayList<Predicate>(equalities);
+            alternative.add(beyond);
+            alternatives.add(cb.and(alternative.toArray(new Predicate[alternative.size()])));
+            equalities.add(cb.equal(property, value));
         }
-        return querySize;
+        plan.keysetParameterCount = sortPropertyIds.length;
+        return cb.or(alternatives.toArray(new Predicate[alternatives.size()]));
     }
 
     /**
-     * Load batch of items.
+     * Checks whether keyset positions are used. Keyset predicates do not
+     * select rows with null sort key values and databases order nulls
+     * differently, so keyset paging is used only if none of the sort
+     * properties can be null.
      *
-     * @param startIndex Starting index of the item list.
-     * @param count      Count of the items to be retrieved.
-     * @return List of items.
+     * @return true if keyset paging is enabled and sort properties can not be null.
      */
-    @Override
-    public final List<Item> loadItems(final int startIndex, final int count) {
-
-        final CriteriaBuilder cb = entityManager.getCriteriaBuilder();
-        final CriteriaQuery<E> cq = cb.createQuery(entityClass);
-        final Root<E> root = cq.from(entityClass);
-
-        cq.select(root);
-
-        setWhereCriteria(cb, cq, root);
-
-        setOrderClause(cb, cq, root);
-
-        final javax.persistence.TypedQuery<E> query = entityManager.createQuery(cq);
+    private boolean isKeysetPaging() {
+        if (!queryDefinition.isKeysetPaging()) {
+            return false;
+        }
+        return isSortNotNullable();
+    }
 
-        query.setFirstResult(startIndex);
-        query.setMaxResults(count);
+    /**
+     * Checks whether none of the sort properties including the entity ID tie
+     * breaker can be null.
+     *
+     * @return true if sort properties can not be null.
+     */
+    private boolean isSortNotNullable() {
+        if (sortNotNullable == null) {
+            sortNotNullable = isNotNullable(getSortPropertyIds(true));
+        }
+        return sortNotNullable;
+    }
 
-        final List<?> entities = query.getResultList();
-        final List<Item> items = new ArrayList<Item>();
-        for (final Object entity : entities) {
-            if (queryDefinition.isDetachedEntities()) {
-                entityManager.detach(entity);
+    /**
+     * Checks from metamodel that none of the given properties can be null.
+     * Each attribute on the property path has to be a singular attribute
+     * which is mandatory, primitive or the ID.
+     *
+     * @param propertyIds the property IDs
+     * @return true if none of the properties can be null.
+     */
+    private boolean isNotNullable(final Object[] propertyIds) {
+        for (final Object propertyId : propertyIds) {
+            final String[] propertyIdParts = ((String) propertyId).split("\\.");
+            ManagedType<?> type = getMetamodel().managedType(entityClass);
+            for (int i = 0; i < propertyIdParts.length; i++) {
+                final Attribute<?, ?> attribute;
+                try {
+                    attribute = type.getAttribute(propertyIdParts[i]);
+                } catch (final IllegalArgumentException e) {
+                    return false;
+                }
+                if (!(attribute instanceof SingularAttribute)) {
+                    return false;
+                }
+                final SingularAttribute<?, ?> singularAttribute = (SingularAttribute<?, ?>) attribute;
+                if (singularAttribute.isOptional() && !singularAttribute.isId()
+                        && !singularAttribute.getJavaType().isPrimitive()) {
+                    return false;
+                }
+                if (i < propertyIdParts.length - 1) {
+                    if (!(singularAttribute.getType() instanceof ManagedType)) {
+                        return false;
+                    }
+                    type = (ManagedType<?>) singularAttribute.getType();
+                }
             }
-            items.add(toItem(entity));
         }
-
-        return items;
+        return true;
     }
 
     /**
-     * Sets where criteria of JPA 2.0 Criteria API query according to Vaadin filters.
-     * @param cb the CriteriaBuilder
-     * @param cq the CriteriaQuery
-     * @param root the root
-     * @param <SE> the selected entity
+     * Converts primitive type to corresponding object type.
+     *
+     * @param type the type
+     * @return the object type or the type itself if it is not primitive.
      */
-    private <SE> void setWhereCriteria(final CriteriaBuilder cb, final CriteriaQuery<SE> cq, final Root<E> root) {
-        final List<Container.Filter> filters = new ArrayList<Container.Filter>();
-        filters.addAll(queryDefinition.getDefaultFilters());
-        filters.addAll(queryDefinition.getFilters());
-
-        final Object[] sortPropertyIds;
-        final boolean[] sortPropertyAscendingStates;
-
-        Container.Filter rootFilter;
-        if (filters.size() > 0) {
-            rootFilter = filters.remove(0);
+    private static Class<?> toObjectType(final Class<?> type) {
+        if (!type.isPrimitive()) {
+            return type;
+        } else if (type == int.class) {
+            return Integer.class;
+        } else if (type == long.class) {
+            return Long.class;
+        } else if (type == short.class) {
+            return Short.class;
+        } else if (type == byte.class) {
+            return Byte.class;
+        } else if (type == double.class) {
+            return Double.class;
+        } else if (type == float.class) {
+            return Float.class;
+        } else if (type == char.class) {
+            return Character.class;
         } else {
-            rootFilter = null;
-        }
-        while (filters.size() > 0) {
-            final Container.Filter filter = filters.remove(0);
-            rootFilter = new And(rootFilter, filter);
+            return Boolean.class;
         }
+    }
 
-        if (rootFilter != null) {
-            cq.where(setFilter(rootFilter, cb, cq, root));
+    /**
+     * Remembers sort key values of the last row of loaded batch as keyset
+     * position of the following row. Position is not remembered if any of the
+     * values is not comparable as offset has to be used then.
+     *
+     * @param index the index of the row following the last row
+     * @param keysetValues the sort key values of the last row
+     */
+    private void rememberKeysetPosition(final int index, final Object[] keysetValues) {
+        for (final Object value : keysetValues) {
+            if (!(value instanceof Comparable)) {
+                return;
+            }
+        }
+        synchronized (keysetPositions) {
+            keysetPositions.put(index, keysetValues);
+            if (keysetPositions.size() > MAX_KEYSET_POSITIONS) {
+                keysetPositions.remove(keysetPositions.getEldestKey());
+            }
         }
     }
 
@@ -202,20 +1336,12 @@ public class EntityQuery<E> implements Query, Serializable {
      * @param cb the CriteriaBuilder
      * @param cq the CriteriaQuery
      * @param root the root
+     * @param sortPropertyIds the sort property IDs
+     * @param sortPropertyAscendingStates the sort states
      * @param <SE> the selected entity
      */
-    private <SE> void setOrderClause(final CriteriaBuilder cb, final CriteriaQuery<SE> cq, final Root<E> root) {
-        Object[] sortPropertyIds;
-        boolean[] sortPropertyAscendingStates;
-
-        if (queryDefinition.getSortPropertyIds().length == 0) {
-            sortPropertyIds = queryDefinition.getDefaultSortPropertyIds();
-            sortPropertyAscendingStates = queryDefinition.getDefaultSortPropertyAscendingStates();
-        } else {
-            sortPropertyIds = queryDefinition.getSortPropertyIds();
-            sortPropertyAscendingStates = queryDefinition.getSortPropertyAscendingStates();
-        }
-
+    private <SE> void setOrderClause(final CriteriaBuilder cb, final CriteriaQuery<SE> cq, final Root<E> root,
+                                     final Object[] sortPropertyIds, final boolean[] sortPropertyAscendingStates) {
         if (sortPropertyIds.length > 0) {
             final List<Order> orders = new ArrayList<Order>();
             for (int i = 0; i < sortPropertyIds.length; i++) {
@@ -239,12 +1365,12 @@ public class EntityQuery<E> implements Query, Serializable {
      *
      * @param filter the Vaadin filter
      * @param cb the CriteriaBuilder
-     * @param cq the CriteriaQuery
+     * @param cq the CriteriaQuery or CriteriaDelete
      * @param root the root
      * @return the predicate
      */
     private Predicate setFilter(final Container.Filter filter, final CriteriaBuilder cb,
-                                final CriteriaQuery<?> cq, final Root<?> root) {
+                                final CommonAbstractCriteria cq, final Root<?> root) {
         if (filter instanceof And) {
             final And and = (And) filter;
             final List<Container.Filter> filters = new ArrayList<Container.Filter>(and.getFilters());
@@ -362,46 +1488,120 @@ public class EntityQuery<E> implements Query, Serializable {
     @Override
     public final void saveItems(final List<Item> addedItems, final List<Item> modifiedItems,
                                 final List<Item> removedItems) {
+        final EntityManager currentEntityManager = openEntityManager();
+        try {
+            joinTransaction(currentEntityManager);
+            saveItems(currentEntityManager, addedItems, modifiedItems, removedItems);
+        } finally {
+            closeEntityManager(currentEntityManager);
+        }
+    }
+
+    /**
+     * Saves the modifications with given entity manager.
+     *
+     * @param currentEntityManager the entity manager of the operation
+     * @param addedItems    Items to be inserted.
+     * @param modifiedItems Items to be updated.
+     * @param removedItems  Items to be deleted.
+     */
+    private void saveItems(final EntityManager currentEntityManager, final List<Item> addedItems,
+                           final List<Item> modifiedItems, final List<Item> removedItems) {
         if (applicationTransactionManagement) {
-            entityManager.getTransaction().begin();
+            currentEntityManager.getTransaction().begin();
         }
+        // Identity sets for constant time membership checks.
+        final List<Item> addedItemSet = new IdentityList<Item>(addedItems);
+        final List<Item> removedItemSet = new IdentityList<Item>(removedItems);
+        // Entities are detached by clear between chunks or by closing the entity manager they were loaded with.
+        final boolean merge = queryDefinition.isDetachedEntities() || queryDefinition.getCommitChunkSize() > 0
+                || currentEntityManager != entityManager;
         try {
+            int totalCount = 0;
+            for (final Item item : addedItems) {
+                if (!removedItemSet.contains(item)) {
+                    totalCount++;
+                }
+            }
+            for (final Item item : modifiedItems) {
+                if (!removedItemSet.contains(item)) {
+                    totalCount++;
+                }
+            }
+            for (final Item item : removedItems) {
+                if (!addedItemSet.contains(item)) {
+                    totalCount++;
+                }
+            }
+
+            // Inserts, updates and removes are saved in separate runs so that JDBC batching applies.
+            int savedCount = 0;
             for (final Item item : addedItems) {
-                if (!removedItems.contains(item)) {
-                    entityManager.persist(fromItem(item));
+                if (!removedItemSet.contains(item)) {
+                    currentEntityManager.persist(fromItem(item));
+                    savedCount = onEntitySaved(currentEntityManager, savedCount, totalCount);
                 }
             }
             for (final Item item : modifiedItems) {
-                if (!removedItems.contains(item)) {
+                if (!removedItemSet.contains(item)) {
                     Object entity = fromItem(item);
-                    if (queryDefinition.isDetachedEntities()) {
-                        entity = entityManager.merge(entity);
+                    if (merge) {
+                        entity = currentEntityManager.merge(entity);
                     }
-                    entityManager.persist(entity);
+                    currentEntityManager.persist(entity);
+                    savedCount = onEntitySaved(currentEntityManager, savedCount, totalCount);
                 }
             }
             for (final Item item : removedItems) {
-                if (!addedItems.contains(item)) {
+                if (!addedItemSet.contains(item)) {
                     Object entity = fromItem(item);
-                    if (queryDefinition.isDetachedEntities()) {
-                        entity = entityManager.merge(entity);
+                    if (merge) {
+                        entity = currentEntityManager.merge(entity);
                     }
-                    entityManager.remove(entity);
+                    currentEntityManager.remove(entity);
+                    savedCount = onEntitySaved(currentEntityManager, savedCount, totalCount);
                 }
             }
+            final int commitChunkSize = queryDefinition.getCommitChunkSize();
+            if (queryDefinition.getCommitListener() != null
+                    && (commitChunkSize == 0 || savedCount % commitChunkSize != 0)) {
+                queryDefinition.getCommitListener().commitProgress(savedCount, totalCount);
+            }
             if (applicationTransactionManagement) {
-                entityManager.getTransaction().commit();
+                currentEntityManager.getTransaction().commit();
             }
         } catch (final Exception e) {
             if (applicationTransactionManagement) {
-                if (entityManager.getTransaction().isActive()) {
-                    entityManager.getTransaction().rollback();
+                if (currentEntityManager.getTransaction().isActive()) {
+                    currentEntityManager.getTransaction().rollback();
                 }
             }
             throw new RuntimeException(e);
         }
     }
 
+    /**
+     * Counts saved entity and flushes and clears persistence context when
+     * commit chunk is full.
+     *
+     * @param currentEntityManager the entity manager of the operation
+     * @param savedCount the number of entities saved before this entity
+     * @param totalCount the total number of entities to be saved
+     * @return the number of entities saved including this entity
+     */
+    private int onEntitySaved(final EntityManager currentEntityManager, final int savedCount,
+                              final int totalCount) {
+        final int commitChunkSize = queryDefinition.getCommitChunkSize();
+        if (commitChunkSize > 0 && (savedCount + 1) % commitChunkSize == 0) {
+            currentEntityManager.flush();
+            currentEntityManager.clear();
+            if (queryDefinition.getCommitListener() != null) {
+                queryDefinition.getCommitListener().commitProgress(savedCount + 1, totalCount);
+            }
+        }
+        return savedCount + 1;
+    }
+
     /**
      * Removes all items. Query will be discarded after delete all items has
      * been called.
@@ -410,39 +1610,225 @@ public class EntityQuery<E> implements Query, Serializable {
      */
     @Override
     public final boolean deleteAllItems() {
+        bulkDeleteAllItems();
+        return true;
+    }
+
+    /**
+     * Removes all items matching the filters. Items are removed with single
+     * bulk delete statement unless the entities have to be removed one by
+     * one due to cascades, orphan removal, entity listeners, collection
+     * tables or nested filter properties. Entity listeners declared only in
+     * orm.xml are not detected.
+     *
+     * @return number of removed items.
+     */
+    @Override
+    public final int bulkDeleteAllItems() {
+        final EntityManager currentEntityManager = openEntityManager();
+        try {
+            joinTransaction(currentEntityManager);
+            return bulkDeleteAllItems(currentEntityManager);
+        } finally {
+            closeEntityManager(currentEntityManager);
+        }
+    }
+
+    /**
+     * Removes all items matching the filters with given entity manager.
+     *
+     * @param currentEntityManager the entity manager of the operation
+     * @return number of removed items.
+     */
+    private int bulkDeleteAllItems(final EntityManager currentEntityManager) {
         if (applicationTransactionManagement) {
-            entityManager.getTransaction().begin();
+            currentEntityManager.getTransaction().begin();
         }
         try {
-            final CriteriaBuilder cb = entityManager.getCriteriaBuilder();
-            final CriteriaQuery<E> cq = cb.createQuery(entityClass);
-            final Root<E> root = cq.from(entityClass);
+            int removedCount = -1;
+            if (isBulkDeleteSupported()) {
+                removedCount = executeBulkDelete(currentEntityManager);
+            }
+            if (removedCount == -1) {
+                removedCount = removeInChunks(currentEntityManager);
+            }
 
-            cq.select(root);
+            if (applicationTransactionManagement) {
+                currentEntityManager.getTransaction().commit();
+            }
+            return removedCount;
+        } catch (final Exception e) {
+            if (applicationTransactionManagement) {
+                if (currentEntityManager.getTransaction().isActive()) {
+                    currentEntityManager.getTransaction().rollback();
+                }
+            }
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Removes entities matching the filters with CriteriaDelete statement.
+     * Bulk delete bypasses the persistence context, so the context is
+     * cleared afterwards to detach the removed entities instead of leaving
+     * them managed and reachable through find.
+     *
+     * @param currentEntityManager the entity manager of the operation
+     * @return number of removed entities or -1 if JPA provider does not support CriteriaDelete.
+     */
+    private int executeBulkDelete(final EntityManager currentEntityManager) {
+        final CriteriaBuilder cb = getCriteriaBuilder();
+        final CriteriaDelete<E> cd;
+        try {
+            cd = cb.createCriteriaDelete(entityClass);
+        } catch (final AbstractMethodError e) {
+            // JPA 2.0 provider.
+            return -1;
+        }
+        final Root<E> root = cd.from(entityClass);
+        final Container.Filter rootFilter = getRootFilter();
+        if (rootFilter != null) {
+            cd.where(setFilter(rootFilter, cb, cd, root));
+        }
+        final int removedCount = currentEntityManager.createQuery(cd).executeUpdate();
+        currentEntityManager.clear();
+        return removedCount;
+    }
 
-            setWhereCriteria(cb, cq, root);
+    /**
+     * Removes entities matching the filters one by one. Entities are loaded
+     * in chunks without ordering and persistence context is flushed and
+     * cleared after each chunk to keep memory consumption bounded.
+     *
+     * @param currentEntityManager the entity manager of the operation
+     * @return number of removed entities.
+     */
+    private int removeInChunks(final EntityManager currentEntityManager) {
+        final CriteriaBuilder cb = getCriteriaBuilder();
+        final CriteriaQuery<E> cq = cb.createQuery(entityClass);
+        final Root<E> root = cq.from(entityClass);
 
-            setOrderClause(cb, cq, root);
+        cq.select(root);
 
-            final javax.persistence.TypedQuery<E> query = entityManager.createQuery(cq);
+        setWhereCriteria(cb, cq, root, null);
 
-            final List<?> entities = query.getResultList();
-            for (final Object entity : entities) {
-                entityManager.remove(entity);
+        int removedCount = 0;
+        while (true) {
+            final javax.persistence.TypedQuery<E> query = currentEntityManager.createQuery(cq);
+            query.setMaxResults(DELETE_CHUNK_SIZE);
+            final List<E> entities = query.getResultList();
+            for (final E entity : entities) {
+                currentEntityManager.remove(entity);
             }
+            removedCount += entities.size();
+            if (entities.size() < DELETE_CHUNK_SIZE) {
+                return removedCount;
+            }
+            currentEntityManager.flush();
+            currentEntityManager.clear();
+        }
+    }
 
-            if (applicationTransactionManagement) {
-                entityManager.getTransaction().commit();
+    /**
+     * Checks whether entities matching the filters can be removed with bulk
+     * delete statement which bypasses cascades, orphan removal, entity
+     * listeners and collection tables and can not join nested properties.
+     *
+     * @return true if bulk delete can be used.
+     */
+    private boolean isBulkDeleteSupported() {
+        for (final Attribute<? super E, ?> attribute
+                : getMetamodel().entity(entityClass).getAttributes()) {
+            if (attribute.getPersistentAttributeType() == Attribute.PersistentAttributeType.ELEMENT_COLLECTION
+                    || attribute.getPersistentAttributeType() == Attribute.PersistentAttributeType.MANY_TO_MANY) {
+                return false;
             }
-        } catch (final Exception e) {
-            if (applicationTransactionManagement) {
-                if (entityManager.getTransaction().isActive()) {
-                    entityManager.getTransaction().rollback();
+        }
+        for (Class<?> type = entityClass; type != null && type != Object.class; type = type.getSuperclass()) {
+            if (type.isAnnotationPresent(EntityListeners.class)) {
+                return false;
+            }
+            for (final Field field : type.getDeclaredFields()) {
+                if (isRemoveCascaded(field)) {
+                    return false;
+                }
+            }
+            for (final Method method : type.getDeclaredMethods()) {
+                if (isRemoveCascaded(method) || method.isAnnotationPresent(PreRemove.class)
+                        || method.isAnnotationPresent(PostRemove.class)) {
+                    return false;
                 }
             }
-            throw new RuntimeException(e);
         }
-        return true;
+        final Container.Filter rootFilter = getRootFilter();
+        return rootFilter == null || !isNestedPropertyFiltered(rootFilter);
+    }
+
+    /**
+     * Checks whether association mapped by field or property cascades remove.
+     *
+     * @param element the field or property getter
+     * @return true if remove is cascaded or orphans are removed.
+     */
+    private static boolean isRemoveCascaded(final AnnotatedElement element) {
+        final OneToMany oneToMany = element.getAnnotation(OneToMany.class);
+        if (oneToMany != null && (oneToMany.orphanRemoval() || isRemoveCascaded(oneToMany.cascade()))) {
+            return true;
+        }
+        final OneToOne oneToOne = element.getAnnotation(OneToOne.class);
+        if (oneToOne != null && (oneToOne.orphanRemoval() || isRemoveCascaded(oneToOne.cascade()))) {
+            return true;
+        }
+        final ManyToOne manyToOne = element.getAnnotation(ManyToOne.class);
+        return manyToOne != null && isRemoveCascaded(manyToOne.cascade());
+    }
+
+    /**
+     * Checks whether cascade types include remove.
+     *
+     * @param cascadeTypes the cascade types
+     * @return true if remove is cascaded.
+     */
+    private static boolean isRemoveCascaded(final CascadeType[] cascadeTypes) {
+        for (final CascadeType cascadeType : cascadeTypes) {
+            if (cascadeType == CascadeType.ALL || cascadeType == CascadeType.REMOVE) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks whether filter refers to nested property.
+     *
+     * @param filter the Vaadin filter
+     * @return true if filter refers to nested property or filter type is not known.
+     */
+    private static boolean isNestedPropertyFiltered(final Container.Filter filter) {
+        final Object propertyId;
+        if (filter instanceof AbstractJunctionFilter) {
+            for (final Container.Filter subFilter : ((AbstractJunctionFilter) filter).getFilters()) {
+                if (isNestedPropertyFiltered(subFilter)) {
+                    return true;
+                }
+            }
+            return false;
+        } else if (filter instanceof Not) {
+            return isNestedPropertyFiltered(((Not) filter).getFilter());
+        } else if (filter instanceof Between) {
+            propertyId = ((Between) filter).getPropertyId();
+        } else if (filter instanceof Compare) {
+            propertyId = ((Compare) filter).getPropertyId();
+        } else if (filter instanceof IsNull) {
+            propertyId = ((IsNull) filter).getPropertyId();
+        } else if (filter instanceof Like) {
+            propertyId = ((Like) filter).getPropertyId();
+        } else if (filter instanceof SimpleStringFilter) {
+            propertyId = ((SimpleStringFilter) filter).getPropertyId();
+        } else {
+            return true;
+        }
+        return propertyId instanceof String && ((String) propertyId).indexOf('.') >= 0;
     }
 
     /**
@@ -484,7 +1870,9 @@ public class EntityQuery<E> implements Query, Serializable {
      * @return Resulting bean.
      */
     protected final Object fromItem(final Item item) {
-        if (queryDefinition.isCompositeItems()) {
+        if (item instanceof ProjectionItem) {
+            return ((ProjectionItem) item).getEntity();
+        } else if (queryDefinition.isCompositeItems()) {
             return (Object) ((BeanItem<?>) (((CompositeItem) item).getItem("bean"))).getBean();
         } else {
             return ((BeanItem<?>) item).getBean();
@@ -498,4 +1886,77 @@ public class EntityQuery<E> implements Query, Serializable {
         return queryDefinition;
     }
 
+    /**
+     * First batch task with the number of items it loads.
+     */
+    private static final class FirstBatch extends FutureTask<List<Item>> {
+        /**
+         * Number of items requested for the first batch.
+         */
+        private final int count;
+
+        /**
+         * Constructor which sets the callable and the number of items.
+         *
+         * @param callable the callable loading the items
+         * @param count the number of items requested
+         */
+        private FirstBatch(final Callable<List<Item>> callable, final int count) {
+            super(callable);
+            this.count = count;
+        }
+    }
+
+    /**
+     * Compiled criteria query with where criteria and order clause derived
+     * from filters and sort state. Creating query from plan only binds the
+     * keyset parameters. Plan is not modified after it has been published
+     * so it can be shared by batches loaded in parallel.
+     *
+     * @param <T> the result type
+     */
+    private static final class Plan<T> {
+        /**
+         * The criteria query.
+         */
+        private final CriteriaQuery<T> criteria;
+        /**
+         * Number of keyset value parameters.
+         */
+        private int keysetParameterCount;
+        /**
+         * Selected property IDs of projection query in selection order.
+         */
+        private final List<Object> selectedPropertyIds = new ArrayList<Object>();
+        /**
+         * Selection indexes of the declared property IDs of projection query, -1 if not selected.
+         */
+        private int[] selectionIndexes;
+
+        /**
+         * Constructor which sets the criteria query.
+         *
+         * @param criteria the criteria query
+         */
+        private Plan(final CriteriaQuery<T> criteria) {
+            this.criteria = criteria;
+        }
+
+        /**
+         * Creates query from the plan.
+         *
+         * @param entityManager the entity manager
+         * @param keysetValues the keyset values to bind or null
+         * @return the query
+         */
+        private javax.persistence.TypedQuery<T> createQuery(final EntityManager entityManager,
+                                                            final Object[] keysetValues) {
+            final javax.persistence.TypedQuery<T> query = entityManager.createQuery(criteria);
+            for (int i = 0; i < keysetParameterCount; i++) {
+                query.setParameter(KEYSET_PARAMETER_PREFIX + i, keysetValues[i]);
+            }
+            return query;
+        }
+    }
+
 }
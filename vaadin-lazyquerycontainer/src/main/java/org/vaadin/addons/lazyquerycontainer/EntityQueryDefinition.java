@@ -15,6 +15,8 @@
  */
 package org.vaadin.addons.lazyquerycontainer;
 
+import java.util.concurrent.Executor;
+
 /**
  * Defines entity query definition to be used with JPA entity managers.
  *
@@ -37,7 +39,30 @@ public class EntityQueryDefinition extends LazyQueryDefinition {
      * True if application manages transactions instead of container.
      */
     private boolean applicationManagedTransactions;
-
+    /**
+     * True if batches following a loaded batch are queried with keyset predicate instead of offset.
+     */
+    private boolean keysetPaging;
+    /**
+     * True if items are constructed from projection queries instead of entities.
+     */
+    private boolean projectionItems;
+    /**
+     * True if associations of nested property IDs are fetch joined.
+     */
+    private boolean fetchJoins = false;
+    /**
+     * Number of entities saved between flushes during commit or 0 to flush only once.
+     */
+    private int commitChunkSize;
+    /**
+     * Listener notified of commit progress or null.
+     */
+    private CommitListener commitListener;
+    /**
+     * Executor loading first batch in parallel with count query or null.
+     */
+    private transient Executor firstBatchExecutor;
 
     /**
      * Constructor for configuring query definition.
@@ -82,4 +107,131 @@ public class EntityQueryDefinition extends LazyQueryDefinition {
         return entityClass;
     }
 
+    /**
+     * @return true if keyset paging is enabled.
+     */
+    public final boolean isKeysetPaging() {
+        return keysetPaging;
+    }
+
+    /**
+     * Enables keyset paging. When enabled the sort key values of the last row
+     * of each loaded batch are remembered and the following batch is queried
+     * with predicate selecting rows after those values instead of skipping
+     * rows with offset. Entity ID is added to sort order as tie breaker.
+     * Offset is still used for random access and when any sort property may
+     * be null, that is when it is not a mandatory attribute, a primitive or
+     * the entity ID, as the keyset predicate would skip rows with null
+     * values.
+     *
+     * @param keysetPaging true to enable keyset paging.
+     */
+    public final void setKeysetPaging(final boolean keysetPaging) {
+        this.keysetPaging = keysetPaging;
+    }
+
+    /**
+     * @return true if items are constructed from projection queries.
+     */
+    public final boolean isProjectionItems() {
+        return projectionItems;
+    }
+
+    /**
+     * Enables projection items. When enabled only the entity ID and the
+     * declared properties are selected and each row is loaded as lightweight
+     * ProjectionItem instead of managed entity. Nested properties are
+     * selected through left joins. Declared properties which are not
+     * persistent attributes get their default values. The entity is loaded
+     * only when modifications of the item are saved.
+     *
+     * @param projectionItems true to enable projection items.
+     */
+    public final void setProjectionItems(final boolean projectionItems) {
+        this.projectionItems = projectionItems;
+    }
+
+    /**
+     * @return true if associations of nested property IDs are fetch joined.
+     */
+    public final boolean isFetchJoins() {
+        return fetchJoins;
+    }
+
+    /**
+     * Sets whether single valued associations on the way to nested property
+     * IDs such as author.company.name are left fetch joined when entities are
+     * loaded. Disabled by default so that existing queries keep their row
+     * count and lazy loading behaviour; enable it to avoid one select per
+     * association when nested property IDs are displayed. Collection valued
+     * associations are never fetch joined. When entity manager is opened per operation associations
+     * are fetch joined regardless of this setting as lazy associations can
+     * not be loaded after the entity manager has been closed. Collection
+     * valued associations of nested property IDs have to be mapped eager in
+     * that mode.
+     *
+     * @param fetchJoins true to fetch join associations of nested property IDs.
+     */
+    public final void setFetchJoins(final boolean fetchJoins) {
+        this.fetchJoins = fetchJoins;
+    }
+
+    /**
+     * @return number of entities saved between flushes during commit or 0 if chunking is disabled.
+     */
+    public final int getCommitChunkSize() {
+        return commitChunkSize;
+    }
+
+    /**
+     * Sets number of entities saved between flushes during commit. When set,
+     * persistence context is flushed and cleared after each chunk to keep
+     * memory consumption bounded and modified entities are merged back
+     * before they are saved. Default is 0 which flushes only on transaction
+     * commit.
+     *
+     * @param commitChunkSize the chunk size or 0 to disable chunking.
+     */
+    public final void setCommitChunkSize(final int commitChunkSize) {
+        if (commitChunkSize < 0) {
+            throw new IllegalArgumentException("Commit chunk size can not be negative: " + commitChunkSize);
+        }
+        this.commitChunkSize = commitChunkSize;
+    }
+
+    /**
+     * @return the commit listener or null.
+     */
+    public final CommitListener getCommitListener() {
+        return commitListener;
+    }
+
+    /**
+     * Sets listener notified of commit progress.
+     *
+     * @param commitListener the commit listener or null.
+     */
+    public final void setCommitListener(final CommitListener commitListener) {
+        this.commitListener = commitListener;
+    }
+
+    /**
+     * @return executor loading first batch in parallel with count query or null.
+     */
+    public final Executor getFirstBatchExecutor() {
+        return firstBatchExecutor;
+    }
+
+    /**
+     * Sets executor which loads the first batch in parallel with the count
+     * query so that first render after refresh, sort or filter change waits
+     * for database only once. Used only when entity manager is opened per
+     * operation as shared entity manager can not be used from two threads.
+     *
+     * @param firstBatchExecutor the executor or null to load first batch after count.
+     */
+    public final void setFirstBatchExecutor(final Executor firstBatchExecutor) {
+        this.firstBatchExecutor = firstBatchExecutor;
+    }
+
 }
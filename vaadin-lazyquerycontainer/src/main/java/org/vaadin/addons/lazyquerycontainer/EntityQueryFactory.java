@@ -16,6 +16,7 @@
 package org.vaadin.addons.lazyquerycontainer;
 
 import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
 import java.io.Serializable;
 
 /**
@@ -30,9 +31,13 @@ public final class EntityQueryFactory implements QueryFactory, Serializable {
     private static final long serialVersionUID = 1L;
 
     /**
-     * The JPA EntityManager.
+     * The JPA EntityManager or null if entity manager factory is used.
      */
     private final EntityManager entityManager;
+    /**
+     * The JPA EntityManagerFactory or null if entity manager is used.
+     */
+    private final EntityManagerFactory entityManagerFactory;
 
     /**
      * Constructor which allows setting the entity manager.
@@ -40,15 +45,35 @@ public final class EntityQueryFactory implements QueryFactory, Serializable {
      */
     public EntityQueryFactory(final EntityManager entityManager) {
         this.entityManager = entityManager;
+        this.entityManagerFactory = null;
+    }
+
+    /**
+     * Constructor which allows setting the entity manager factory. Queries
+     * open short lived entity manager for each load, count and save so that
+     * persistence context does not grow while scrolling and batches can be
+     * loaded in parallel.
+     * @param entityManagerFactory the entity manager factory
+     */
+    public EntityQueryFactory(final EntityManagerFactory entityManagerFactory) {
+        this.entityManager = null;
+        this.entityManagerFactory = entityManagerFactory;
     }
 
     /**
-     * @return the entityManager
+     * @return the entityManager or null if entity manager factory is used.
      */
     public EntityManager getEntityManager() {
         return entityManager;
     }
 
+    /**
+     * @return the entityManagerFactory or null if entity manager is used.
+     */
+    public EntityManagerFactory getEntityManagerFactory() {
+        return entityManagerFactory;
+    }
+
     /**
      * Constructs a new query according to the given QueryDefinition.
      *
@@ -57,6 +82,9 @@ public final class EntityQueryFactory implements QueryFactory, Serializable {
      */
     @Override
     public Query constructQuery(final QueryDefinition queryDefinition) {
+        if (entityManagerFactory != null) {
+            return new EntityQuery((EntityQueryDefinition) queryDefinition, entityManagerFactory);
+        }
         return new EntityQuery((EntityQueryDefinition) queryDefinition, entityManager);
     }
 
@@ -0,0 +1,240 @@
+/**
+ * Copyright 2010 Tommi S.E. Laukkanen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.lazyquerycontainer;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Map from item ID to item index used by LazyQueryView to resolve indexes
+ * of cached items. Long and Integer IDs are stored in open addressing
+ * table of primitive keys and values so that neither are boxed. Other IDs
+ * are stored in hash map. Indexes have to be non-negative.
+ *
+ * @author Tommi S.E. Laukkanen
+ */
+public final class IdIndexMap implements Serializable {
+    /**
+     * Java serialization version UID.
+     */
+    private static final long serialVersionUID = 1L;
+    /**
+     * Initial capacity of the primitive table. Has to be power of two.
+     */
+    private static final int INITIAL_CAPACITY = 16;
+    /**
+     * Index value marking free slot of the primitive table.
+     */
+    private static final int FREE = -1;
+    /**
+     * Class of IDs stored in primitive table or null if none stored yet.
+     */
+    private Class<?> primitiveIdClass;
+    /**
+     * The primitive table keys.
+     */
+    private long[] keys;
+    /**
+     * The primitive table values, FREE for free slots.
+     */
+    private int[] indexes;
+    /**
+     * Number of entries in the primitive table.
+     */
+    private int primitiveSize;
+    /**
+     * Indexes of IDs which are not stored in primitive table.
+     */
+    private final Map<Object, Integer> objectIndexes = new HashMap<Object, Integer>();
+
+    /**
+     * Default constructor.
+     */
+    public IdIndexMap() {
+        keys = new long[INITIAL_CAPACITY];
+        indexes = newIndexes(INITIAL_CAPACITY);
+    }
+
+    /**
+     * @return number of entries in the map.
+     */
+    public int size() {
+        return primitiveSize + objectIndexes.size();
+    }
+
+    /**
+     * Gets index of given ID.
+     *
+     * @param id the ID
+     * @return the index or -1 if map does not contain the ID.
+     */
+    public int get(final Object id) {
+        if (isPrimitive(id)) {
+            final int slot = findSlot(((Number) id).longValue());
+            return indexes[slot];
+        }
+        final Integer index = objectIndexes.get(id);
+        if (index == null) {
+            return -1;
+        }
+        return index;
+    }
+
+    /**
+     * Puts index of given ID.
+     *
+     * @param id the ID
+     * @param index the index, non-negative
+     */
+    public void put(final Object id, final int index) {
+        if (primitiveIdClass == null && (id instanceof Long || id instanceof Integer)) {
+            primitiveIdClass = id.getClass();
+        }
+        if (!isPrimitive(id)) {
+            objectIndexes.put(id, index);
+            return;
+        }
+        final long key = ((Number) id).longValue();
+        final int slot = findSlot(key);
+        if (indexes[slot] == FREE) {
+            keys[slot] = key;
+            primitiveSize++;
+        }
+        indexes[slot] = index;
+        if (primitiveSize > keys.length - (keys.length >> 2)) {
+            resize(keys.length << 1);
+        }
+    }
+
+    /**
+     * Removes given ID if it is mapped to given index.
+     *
+     * @param id the ID
+     * @param index the index
+     */
+    public void remove(final Object id, final int index) {
+        if (!isPrimitive(id)) {
+            final Integer currentIndex = objectIndexes.get(id);
+            if (currentIndex != null && currentIndex == index) {
+                objectIndexes.remove(id);
+            }
+            return;
+        }
+        int hole = findSlot(((Number) id).longValue());
+        if (indexes[hole] != index) {
+            return;
+        }
+        // Shift following entries of the probe sequence back to the hole.
+        final int mask = keys.length - 1;
+        int slot = (hole + 1) & mask;
+        while (indexes[slot] != FREE) {
+            final int home = slot(keys[slot], keys.length);
+            if (((slot - home) & mask) >= ((slot - hole) & mask)) {
+                keys[hole] = keys[slot];
+                indexes[hole] = indexes[slot];
+                hole = slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        indexes[hole] = FREE;
+        primitiveSize--;
+    }
+
+    /**
+     * Removes all entries from the map.
+     */
+    public void clear() {
+        if (keys.length > INITIAL_CAPACITY) {
+            keys = new long[INITIAL_CAPACITY];
+            indexes = newIndexes(INITIAL_CAPACITY);
+        } else {
+            Arrays.fill(indexes, FREE);
+        }
+        primitiveSize = 0;
+        primitiveIdClass = null;
+        objectIndexes.clear();
+    }
+
+    /**
+     * Checks whether ID is stored in primitive table.
+     *
+     * @param id the ID
+     * @return true if ID is stored in primitive table.
+     */
+    private boolean isPrimitive(final Object id) {
+        return id != null && id.getClass() == primitiveIdClass;
+    }
+
+    /**
+     * Finds slot containing given key or the free slot ending its probe sequence.
+     *
+     * @param key the key
+     * @return the slot
+     */
+    private int findSlot(final long key) {
+        final int mask = keys.length - 1;
+        int slot = slot(key, keys.length);
+        while (indexes[slot] != FREE && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * Resizes the primitive table.
+     *
+     * @param capacity the new capacity, power of two.
+     */
+    private void resize(final int capacity) {
+        final long[] oldKeys = keys;
+        final int[] oldIndexes = indexes;
+        keys = new long[capacity];
+        indexes = newIndexes(capacity);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldIndexes[i] != FREE) {
+                final int slot = findSlot(oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                indexes[slot] = oldIndexes[i];
+            }
+        }
+    }
+
+    /**
+     * Calculates home slot of the key.
+     *
+     * @param key the key
+     * @param capacity the table capacity, power of two.
+     * @return the slot
+     */
+    private static int slot(final long key, final int capacity) {
+        final int hash = (int) (key ^ (key >>> 32)) * 0x9E3779B9;
+        return (hash ^ (hash >>> 16)) & (capacity - 1);
+    }
+
+    /**
+     * Constructs table of free index slots.
+     *
+     * @param capacity the capacity
+     * @return the indexes
+     */
+    private static int[] newIndexes(final int capacity) {
+        final int[] newIndexes = new int[capacity];
+        Arrays.fill(newIndexes, FREE);
+        return newIndexes;
+    }
+}
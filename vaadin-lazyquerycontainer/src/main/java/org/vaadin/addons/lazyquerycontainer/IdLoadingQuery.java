@@ -0,0 +1,34 @@
+/**
+ * Copyright 2010 Tommi S.E. Laukkanen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.lazyquerycontainer;
+
+import java.util.List;
+
+/**
+ * Query which can load item IDs without constructing the items.
+ *
+ * @author Tommi S.E. Laukkanen
+ */
+public interface IdLoadingQuery extends Query {
+    /**
+     * Loads IDs of items in the same order as loadItems loads the items.
+     *
+     * @param startIndex Starting index of the item ID list.
+     * @param count Count of the item IDs to be retrieved.
+     * @return List of item IDs.
+     */
+    List<?> loadIds(int startIndex, int count);
+}
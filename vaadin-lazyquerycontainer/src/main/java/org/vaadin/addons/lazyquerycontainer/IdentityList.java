@@ -0,0 +1,215 @@
+/**
+ * Copyright 2010 Tommi S.E. Laukkanen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.lazyquerycontainer;
+
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.Set;
+
+/**
+ * List which keeps elements in insertion order and contains each element
+ * instance only once. Membership is decided by reference identity instead of
+ * equals so that contains is constant time. Used for tracking buffered
+ * item changes.
+ *
+ * @param <E> the element type
+ * @author Tommi S.E. Laukkanen
+ */
+public final class IdentityList<E> extends AbstractList<E> implements RandomAccess, Serializable {
+    /**
+     * Java serialization version UID.
+     */
+    private static final long serialVersionUID = 1L;
+    /**
+     * The elements in order.
+     */
+    private final List<E> elements;
+    /**
+     * The elements by identity.
+     */
+    private final Set<E> members = Collections.newSetFromMap(new IdentityHashMap<E, Boolean>());
+
+    /**
+     * Default constructor.
+     */
+    public IdentityList() {
+        elements = new ArrayList<E>();
+    }
+
+    /**
+     * Constructor which adds elements of the given collection. Duplicate
+     * instances are added only once.
+     *
+     * @param collection the collection
+     */
+    public IdentityList(final Collection<? extends E> collection) {
+        elements = new ArrayList<E>(collection.size());
+        for (final E element : collection) {
+            add(element);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public E get(final int index) {
+        return elements.get(index);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int size() {
+        return elements.size();
+    }
+
+    /**
+     * Checks whether list contains the given instance.
+     *
+     * @param o the instance
+     * @return true if list contains the instance.
+     */
+    @Override
+    public boolean contains(final Object o) {
+        return members.contains(o);
+    }
+
+    /**
+     * Adds element to the end of the list if the list does not already contain it.
+     *
+     * @param element the element
+     * @return true if element was added.
+     */
+    @Override
+    public boolean add(final E element) {
+        if (!members.add(element)) {
+            return false;
+        }
+        elements.add(element);
+        modCount++;
+        return true;
+    }
+
+    /**
+     * Inserts element at given index if the list does not already contain it.
+     *
+     * @param index the index
+     * @param element the element
+     */
+    @Override
+    public void add(final int index, final E element) {
+        if (index < 0 || index > elements.size()) {
+            throw new IndexOutOfBoundsException("Size: " + elements.size() + " and index: " + index);
+        }
+        if (members.add(element)) {
+            elements.add(index, element);
+            modCount++;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public E set(final int index, final E element) {
+        final E previous = elements.get(index);
+        if (previous == element) {
+            return previous;
+        }
+        if (members.contains(element)) {
+            throw new IllegalArgumentException("List already contains the element.");
+        }
+        elements.set(index, element);
+        members.remove(previous);
+        members.add(element);
+        return previous;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public E remove(final int index) {
+        final E element = elements.remove(index);
+        members.remove(element);
+        modCount++;
+        return element;
+    }
+
+    /**
+     * Removes the given instance from the list.
+     *
+     * @param o the instance
+     * @return true if list contained the instance.
+     */
+    @Override
+    public boolean remove(final Object o) {
+        if (!members.contains(o)) {
+            return false;
+        }
+        remove(indexOf(o));
+        return true;
+    }
+
+    /**
+     * Gets index of the given instance.
+     *
+     * @param o the instance
+     * @return the index or -1 if list does not contain the instance.
+     */
+    @Override
+    public int indexOf(final Object o) {
+        if (!members.contains(o)) {
+            return -1;
+        }
+        for (int i = 0; i < elements.size(); i++) {
+            if (elements.get(i) == o) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Gets index of the given instance. As instances are contained only once
+     * this is same as indexOf.
+     *
+     * @param o the instance
+     * @return the index or -1 if list does not contain the instance.
+     */
+    @Override
+    public int lastIndexOf(final Object o) {
+        return indexOf(o);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void clear() {
+        elements.clear();
+        members.clear();
+        modCount++;
+    }
+}
@@ -0,0 +1,394 @@
+/**
+ * Copyright 2010 Tommi S.E. Laukkanen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.lazyquerycontainer;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Cache map with primitive int keys and access ordering used by LazyQueryView.
+ * All operations are constant time. Entries are kept in a doubly linked list
+ * in order of access so that the least recently used entry can be found
+ * without scanning.
+ *
+ * @param <V> the value type
+ * @author Tommi S.E. Laukkanen
+ */
+public final class IntLruCache<V> implements Serializable {
+    /**
+     * Java serialization version UID.
+     */
+    private static final long serialVersionUID = 1L;
+    /**
+     * Initial capacity of the hash table. Has to be power of two.
+     */
+    private static final int INITIAL_CAPACITY = 16;
+    /**
+     * The hash table. Rebuilt on deserialization.
+     */
+    private transient Entry<V>[] table;
+    /**
+     * Number of entries in the cache.
+     */
+    private transient int size;
+    /**
+     * Least recently used entry or null if cache is empty.
+     */
+    private transient Entry<V> eldest;
+    /**
+     * Most recently used entry or null if cache is empty.
+     */
+    private transient Entry<V> youngest;
+
+    /**
+     * Default constructor.
+     */
+    public IntLruCache() {
+        table = newTable(INITIAL_CAPACITY);
+    }
+
+    /**
+     * @return number of entries in the cache.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return true if cache is empty.
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Checks whether cache contains value for given key without affecting access order.
+     *
+     * @param key the key
+     * @return true if cache contains value for the key.
+     */
+    public boolean containsKey(final int key) {
+        return getEntry(key) != null;
+    }
+
+    /**
+     * Gets value for given key and marks it as most recently used.
+     *
+     * @param key the key
+     * @return the value or null if cache does not contain the key.
+     */
+    public V get(final int key) {
+        final Entry<V> entry = getEntry(key);
+        if (entry == null) {
+            return null;
+        }
+        moveToYoungest(entry);
+        return entry.value;
+    }
+
+    /**
+     * Gets value for given key without affecting access order.
+     *
+     * @param key the key
+     * @return the value or null if cache does not contain the key.
+     */
+    public V peek(final int key) {
+        final Entry<V> entry = getEntry(key);
+        if (entry == null) {
+            return null;
+        }
+        return entry.value;
+    }
+
+    /**
+     * Puts value to cache and marks it as most recently used.
+     *
+     * @param key the key
+     * @param value the value
+     * @return the previous value or null if cache did not contain the key.
+     */
+    public V put(final int key, final V value) {
+        final Entry<V> existing = getEntry(key);
+        if (existing != null) {
+            final V previousValue = existing.value;
+            existing.value = value;
+            moveToYoungest(existing);
+            return previousValue;
+        }
+
+        if (size >= table.length - (table.length >> 2)) {
+            resize(table.length << 1);
+        }
+
+        final Entry<V> entry = new Entry<V>(key, value);
+        final int bucket = bucket(key, table.length);
+        entry.next = table[bucket];
+        table[bucket] = entry;
+        linkYoungest(entry);
+        size++;
+        return null;
+    }
+
+    /**
+     * Removes value of given key from the cache.
+     *
+     * @param key the key
+     * @return the removed value or null if cache did not contain the key.
+     */
+    public V remove(final int key) {
+        final int bucket = bucket(key, table.length);
+        Entry<V> previous = null;
+        Entry<V> entry = table[bucket];
+        while (entry != null) {
+            if (entry.key == key) {
+                if (previous == null) {
+                    table[bucket] = entry.next;
+                } else {
+                    previous.next = entry.next;
+                }
+                unlink(entry);
+                size--;
+                return entry.value;
+            }
+            previous = entry;
+            entry = entry.next;
+        }
+        return null;
+    }
+
+    /**
+     * Gets the key of the least recently used entry.
+     *
+     * @return the key of the least recently used entry.
+     * @throws NoSuchElementException if the cache is empty.
+     */
+    public int getEldestKey() {
+        if (eldest == null) {
+            throw new NoSuchElementException();
+        }
+        return eldest.key;
+    }
+
+    /**
+     * Gets values of the cache without affecting access order.
+     *
+     * @return list of values from least to most recently used.
+     */
+    public List<V> values() {
+        final List<V> values = new ArrayList<V>(size);
+        for (Entry<V> entry = eldest; entry != null; entry = entry.younger) {
+            values.add(entry.value);
+        }
+        return values;
+    }
+
+    /**
+     * Removes all entries from the cache.
+     */
+    public void clear() {
+        if (size > INITIAL_CAPACITY) {
+            table = newTable(INITIAL_CAPACITY);
+        } else {
+            for (int i = 0; i < table.length; i++) {
+                table[i] = null;
+            }
+        }
+        size = 0;
+        eldest = null;
+        youngest = null;
+    }
+
+    /**
+     * Finds entry of the given key.
+     *
+     * @param key the key
+     * @return the entry or null if not found.
+     */
+    private Entry<V> getEntry(final int key) {
+        Entry<V> entry = table[bucket(key, table.length)];
+        while (entry != null) {
+            if (entry.key == key) {
+                return entry;
+            }
+            entry = entry.next;
+        }
+        return null;
+    }
+
+    /**
+     * Moves entry to the most recently used end of access order.
+     *
+     * @param entry the entry
+     */
+    private void moveToYoungest(final Entry<V> entry) {
+        if (entry != youngest) {
+            unlink(entry);
+            linkYoungest(entry);
+        }
+    }
+
+    /**
+     * Links entry as the most recently used entry.
+     *
+     * @param entry the entry
+     */
+    private void linkYoungest(final Entry<V> entry) {
+        entry.older = youngest;
+        entry.younger = null;
+        if (youngest == null) {
+            eldest = entry;
+        } else {
+            youngest.younger = entry;
+        }
+        youngest = entry;
+    }
+
+    /**
+     * Unlinks entry from the access order.
+     *
+     * @param entry the entry
+     */
+    private void unlink(final Entry<V> entry) {
+        if (entry.older == null) {
+            eldest = entry.younger;
+        } else {
+            entry.older.younger = entry.younger;
+        }
+        if (entry.younger == null) {
+            youngest = entry.older;
+        } else {
+            entry.younger.older = entry.older;
+        }
+        entry.older = null;
+        entry.younger = null;
+    }
+
+    /**
+     * Resizes the hash table.
+     *
+     * @param capacity the new capacity, power of two.
+     */
+    private void resize(final int capacity) {
+        final Entry<V>[] newTable = newTable(capacity);
+        for (Entry<V> entry = eldest; entry != null; entry = entry.younger) {
+            final int bucket = bucket(entry.key, capacity);
+            entry.next = newTable[bucket];
+            newTable[bucket] = entry;
+        }
+        table = newTable;
+    }
+
+    /**
+     * Calculates hash table bucket of the key.
+     *
+     * @param key the key
+     * @param capacity the table capacity, power of two.
+     * @return the bucket index
+     */
+    private static int bucket(final int key, final int capacity) {
+        final int hash = key * 0x9E3779B9;
+        return (hash ^ (hash >>> 16)) & (capacity - 1);
+    }
+
+    /**
+     * Constructs new hash table.
+     *
+     * @param capacity the capacity
+     * @param <V> the value type
+     * @return the hash table
+     */
+    @SuppressWarnings("unchecked")
+    private static <V> Entry<V>[] newTable(final int capacity) {
+        return (Entry<V>[]) new Entry[capacity];
+    }
+
+    /**
+     * Writes entries in access order to avoid deep recursion on the linked entries.
+     *
+     * @param out the output stream
+     * @throws IOException if IO exception occurs
+     */
+    private void writeObject(final ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        out.writeInt(size);
+        for (Entry<V> entry = eldest; entry != null; entry = entry.younger) {
+            out.writeInt(entry.key);
+            out.writeObject(entry.value);
+        }
+    }
+
+    /**
+     * Reads entries and rebuilds the hash table.
+     *
+     * @param in the input stream
+     * @throws IOException if IO exception occurs
+     * @throws ClassNotFoundException if class of a value is not found
+     */
+    @SuppressWarnings("unchecked")
+    private void readObject(final ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        table = newTable(INITIAL_CAPACITY);
+        final int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            final int key = in.readInt();
+            put(key, (V) in.readObject());
+        }
+    }
+
+    /**
+     * Cache entry which is both hash chain node and access order node.
+     *
+     * @param <V> the value type
+     */
+    private static final class Entry<V> {
+        /**
+         * The key.
+         */
+        private final int key;
+        /**
+         * The value.
+         */
+        private V value;
+        /**
+         * Next entry in the same hash bucket.
+         */
+        private Entry<V> next;
+        /**
+         * Previous entry in access order.
+         */
+        private Entry<V> older;
+        /**
+         * Next entry in access order.
+         */
+        private Entry<V> younger;
+
+        /**
+         * Constructor which sets key and value.
+         *
+         * @param key the key
+         * @param value the value
+         */
+        private Entry(final int key, final V value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,33 @@
+/**
+ * Copyright 2010 Tommi S.E. Laukkanen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.lazyquerycontainer;
+
+import com.vaadin.data.Item;
+
+/**
+ * Query which can load single item by its ID without resolving its index.
+ *
+ * @author Tommi S.E. Laukkanen
+ */
+public interface ItemLookupQuery extends Query {
+    /**
+     * Loads item with given ID if it matches the query filters.
+     *
+     * @param itemId the item ID
+     * @return the item or null if query does not contain the item.
+     */
+    Item loadItemById(Object itemId);
+}
@@ -0,0 +1,36 @@
+/**
+ * Copyright 2010 Tommi S.E. Laukkanen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.lazyquerycontainer;
+
+import com.vaadin.data.Item;
+import com.vaadin.data.Property;
+
+import java.io.Serializable;
+
+/**
+ * Listener notified when a property value of an item changes.
+ *
+ * @author Tommi S.E. Laukkanen
+ */
+public interface ItemModificationListener extends Serializable {
+    /**
+     * Invoked when property value of the item has changed.
+     *
+     * @param item The modified item.
+     * @param property The changed property.
+     */
+    void itemModified(Item item, Property property);
+}
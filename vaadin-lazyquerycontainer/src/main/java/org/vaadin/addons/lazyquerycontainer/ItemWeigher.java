@@ -0,0 +1,36 @@
+/**
+ * Copyright 2010 Tommi S.E. Laukkanen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.lazyquerycontainer;
+
+import com.vaadin.data.Item;
+
+import java.io.Serializable;
+
+/**
+ * Interface for estimating the memory used by a cached item. Used by
+ * LazyQueryView when cache is limited by byte budget.
+ *
+ * @author Tommi S.E. Laukkanen
+ */
+public interface ItemWeigher extends Serializable {
+    /**
+     * Estimates the weight of the item in bytes.
+     *
+     * @param item The item.
+     * @return the estimated weight in bytes.
+     */
+    long weigh(Item item);
+}
@@ -15,9 +15,11 @@
  */
 package org.vaadin.addons.lazyquerycontainer;
 
+import com.vaadin.data.Item;
 import com.vaadin.data.util.BeanItem;
 
 import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
 /**
  * LazyEntityContainer enables using JPA entities with lazy batch loading, filter, sort
  * and buffered writes.
@@ -52,6 +54,27 @@ public final class LazyEntityContainer<T> extends LazyQueryContainer {
                 new EntityQueryFactory(entityManager));
     }
 
+    /**
+     * Constructor which configures query definition for accessing JPA entities
+     * with short lived entity manager per operation. Entities are always
+     * detached.
+     *
+     * @param entityManagerFactory           The JPA EntityManagerFactory.
+     * @param entityClass                    The entity class.
+     * @param idPropertyId                   The ID of the ID property or null if item index is used as ID.
+     * @param batchSize                      The batch size.
+     * @param applicationManagedTransactions True if application manages transactions instead of container.
+     * @param compositeItems                 True f items are wrapped to CompositeItems.
+     */
+    public LazyEntityContainer(final EntityManagerFactory entityManagerFactory,
+                               final Class<?> entityClass, final int batchSize, final Object idPropertyId,
+                               final boolean applicationManagedTransactions, final boolean compositeItems) {
+        super(new EntityQueryDefinition(applicationManagedTransactions,
+                true, compositeItems,
+                entityClass, batchSize, idPropertyId),
+                new EntityQueryFactory(entityManagerFactory));
+    }
+
     /**
      * Constructor which configures query definition for accessing JPA entities.
      * @param entityManager The JPA EntityManager.
@@ -124,12 +147,15 @@ public final class LazyEntityContainer<T> extends LazyQueryContainer {
      */
     @SuppressWarnings("unchecked")
     public T getEntity(final int index) {
-        if (getQueryView().getQueryDefinition().isCompositeItems()) {
-            final CompositeItem compositeItem = (CompositeItem) getItem(getIdByIndex(index));
+        final Item item = getItem(getIdByIndex(index));
+        if (item instanceof ProjectionItem) {
+            return (T) ((ProjectionItem) item).getEntity();
+        } else if (getQueryView().getQueryDefinition().isCompositeItems()) {
+            final CompositeItem compositeItem = (CompositeItem) item;
             final BeanItem<T> beanItem = (BeanItem<T>) compositeItem.getItem("bean");
             return beanItem.getBean();
         } else {
-            return ((BeanItem<T>) getItem(getIdByIndex(index))).getBean();
+            return ((BeanItem<T>) item).getBean();
         }
     }
 
@@ -19,9 +19,7 @@ import com.vaadin.data.Item;
 
 import java.io.Serializable;
 import java.util.AbstractList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 /**
  * Lazy ID list implementation used in LazyQueryContainer.getItemIds
@@ -43,10 +41,6 @@ public final class LazyIdList<T> extends AbstractList<T> implements Serializable
      * The ID of the item ID property.
      */
     private final Object idPropertyId;
-    /**
-     * Map containing index to item ID mapping for IDs already loaded through this list.
-     */
-    private final Map<Object, Integer> idIndexMap = new HashMap<Object, Integer>();
 
     /**
      * Constructor which sets composite LazyQueryView and ID of the item ID property.
@@ -88,15 +82,7 @@ public final class LazyIdList<T> extends AbstractList<T> implements Serializable
         if (index < 0 || index >= lazyQueryView.size()) {
             throw new IndexOutOfBoundsException();
         }
-        final T itemId = (T) lazyQueryView.getItem(index).getItemProperty(idPropertyId).getValue();
-        // Do not put added item ids to id index map and make sure that
-        // existing item indexes start from 0 i.e. ignore added items as they
-        // are compensated for in indexOf method.
-        final int addedItemSize = lazyQueryView.getAddedItems().size();
-        if (index >= addedItemSize) {
-            idIndexMap.put(itemId, index - addedItemSize);
-        }
-        return itemId;
+        return (T) lazyQueryView.getItemId(index);
     }
 
     /**
@@ -120,13 +106,26 @@ public final class LazyIdList<T> extends AbstractList<T> implements Serializable
                 return i;
             }
         }
-        // Check from mapping cache.
-        if (idIndexMap.containsKey(o)) {
-            return addedItems.size() + idIndexMap.get(o);
+        // Check from indexes of cached items.
+        final int cachedQueryIndex = lazyQueryView.getCachedQueryIndex(o);
+        if (cachedQueryIndex != -1) {
+            return addedItems.size() + cachedQueryIndex;
+        }
+        // Ask position from query and verify it from the view.
+        final int queryIndex = lazyQueryView.lookupQueryIndex(o);
+        if (queryIndex == -1) {
+            return -1;
+        }
+        if (queryIndex >= 0) {
+            final int index = addedItems.size() + queryIndex;
+            if (index < lazyQueryView.resolveSize(index + 1) && o.equals(get(index))) {
+                return index;
+            }
         }
-        // Switching to brute forcing.
-        for (int i = addedItems.size(); i < lazyQueryView.size(); i++) {
-            if (o.equals(lazyQueryView.getItem(i).getItemProperty(idPropertyId).getValue())) {
+        // Switching to brute forcing. Size is resolved one index ahead so
+        // that estimated size does not shrink below the index being read.
+        for (int i = addedItems.size(); i < lazyQueryView.resolveSize(i + 1); i++) {
+            if (o.equals(get(i))) {
                 return i;
             }
         }
@@ -134,6 +133,27 @@ public final class LazyIdList<T> extends AbstractList<T> implements Serializable
         return -1;
     }
 
+    /**
+     * Gets index of item ID from added items and indexes of cached items
+     * without querying.
+     *
+     * @param o the item ID
+     * @return the index or -1 if index is not known.
+     */
+    int indexOfKnown(final Object o) {
+        final List<Item> addedItems = lazyQueryView.getAddedItems();
+        for (int i = 0; i < addedItems.size(); i++) {
+            if (o.equals(addedItems.get(i).getItemProperty(idPropertyId).getValue())) {
+                return i;
+            }
+        }
+        final int queryIndex = lazyQueryView.getCachedQueryIndex(o);
+        if (queryIndex == -1) {
+            return -1;
+        }
+        return addedItems.size() + queryIndex;
+    }
+
     /**
      * {@inheritDoc}
      */
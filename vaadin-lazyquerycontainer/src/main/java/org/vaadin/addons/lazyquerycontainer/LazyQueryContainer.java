@@ -65,8 +65,10 @@ public class LazyQueryContainer implements Indexed, Sortable, ItemSetChangeNotif
                               final Object idPropertyId,
                               final int batchSize,
                               final boolean compositeItems) {
-        this.queryView = new LazyQueryView(new LazyQueryDefinition(compositeItems, batchSize, idPropertyId),
-                queryFactory);
+        final LazyQueryView lazyQueryView = new LazyQueryView(
+                new LazyQueryDefinition(compositeItems, batchSize, idPropertyId), queryFactory);
+        lazyQueryView.addQuerySizeChangeListener(new QueryViewSizeChangeListener());
+        this.queryView = lazyQueryView;
     }
 
     /**
@@ -77,7 +79,9 @@ public class LazyQueryContainer implements Indexed, Sortable, ItemSetChangeNotif
      * @param queryDefinition The query definition to be used.
      */
     public LazyQueryContainer(final QueryDefinition queryDefinition, final QueryFactory queryFactory) {
-        this.queryView = new LazyQueryView(queryDefinition, queryFactory);
+        final LazyQueryView lazyQueryView = new LazyQueryView(queryDefinition, queryFactory);
+        lazyQueryView.addQuerySizeChangeListener(new QueryViewSizeChangeListener());
+        this.queryView = lazyQueryView;
     }
 
     /**
@@ -88,6 +92,9 @@ public class LazyQueryContainer implements Indexed, Sortable, ItemSetChangeNotif
      */
     public LazyQueryContainer(final QueryView queryView) {
         this.queryView = queryView;
+        if (queryView instanceof LazyQueryView) {
+            ((LazyQueryView) queryView).addQuerySizeChangeListener(new QueryViewSizeChangeListener());
+        }
     }
 
     /**
@@ -181,6 +188,20 @@ public class LazyQueryContainer implements Indexed, Sortable, ItemSetChangeNotif
         return queryView.size();
     }
 
+    /**
+     * Resolves size of the view far enough that IDs below the given size can
+     * be indexed without estimated query size shrinking under them.
+     *
+     * @param minSize the number of leading IDs to resolve or Integer.MAX_VALUE to resolve all.
+     * @return number of items.
+     */
+    private int resolveSize(final int minSize) {
+        if (queryView instanceof LazyQueryView) {
+            return ((LazyQueryView) queryView).resolveSize(minSize);
+        }
+        return queryView.size();
+    }
+
     /**
      * Gets list of item indexes in the container.
      *
@@ -199,9 +220,13 @@ public class LazyQueryContainer implements Indexed, Sortable, ItemSetChangeNotif
     public final Item getItem(final Object itemId) {
         if (itemId == null) {
             return null;
+        } else if (queryView instanceof LazyQueryView) {
+            return ((LazyQueryView) queryView).getItemById(itemId);
         } else {
-            int index = queryView.getItemIdList().indexOf(itemId);
-            if (index == -1) return null;
+            final int index = queryView.getItemIdList().indexOf(itemId);
+            if (index == -1) {
+                return null;
+            }
             return queryView.getItem(index);
         }
     }
@@ -227,6 +252,7 @@ public class LazyQueryContainer implements Indexed, Sortable, ItemSetChangeNotif
      * @return the object ID i.e. index.
      */
     public final Object getIdByIndex(final int index) {
+        resolveSize(index + 1);
         return queryView.getItemIdList().get(index);
     }
 
@@ -268,21 +294,29 @@ public class LazyQueryContainer implements Indexed, Sortable, ItemSetChangeNotif
      * @return true if index is size() - 1.
      */
     public final boolean isLastId(final Object itemId) {
-        return queryView.getItemIdList().indexOf(itemId) == size() - 1;
+        final int index = queryView.getItemIdList().indexOf(itemId);
+        return index != -1 && index == resolveSize(index + 2) - 1;
     }
 
     /**
-     * @return first item ID i.e. 0.
+     * @return first item ID i.e. 0, or <code>null</code> if container is empty
      */
     public final Object firstItemId() {
+        if (resolveSize(1) == 0) {
+            return null;
+        }
         return queryView.getItemIdList().get(0);
     }
 
     /**
-     * @return last item ID i.e. size() - 1
+     * @return last item ID i.e. size() - 1, or <code>null</code> if container is empty
      */
     public final Object lastItemId() {
-        return queryView.getItemIdList().get(size() - 1);
+        final int size = resolveSize(Integer.MAX_VALUE);
+        if (size == 0) {
+            return null;
+        }
+        return queryView.getItemIdList().get(size - 1);
     }
 
     /**
@@ -290,13 +324,12 @@ public class LazyQueryContainer implements Indexed, Sortable, ItemSetChangeNotif
      * @return itemId + 1, or <code>null</code> if no such item
      */
     public final Object nextItemId(final Object itemId) {
-    	List<?> itemIdList = queryView.getItemIdList();
-    	int currentIndex = itemIdList.indexOf(itemId);
-    	if (currentIndex == -1 || currentIndex == itemIdList.size() - 1) {
+    	int currentIndex = queryView.getItemIdList().indexOf(itemId);
+    	if (currentIndex == -1 || currentIndex >= resolveSize(currentIndex + 2) - 1) {
     		return null;
     	}
     	else {
-    		return itemIdList.get(currentIndex + 1);
+    		return queryView.getItemIdList().get(currentIndex + 1);
     	}
     }
 
@@ -397,11 +430,28 @@ public class LazyQueryContainer implements Indexed, Sortable, ItemSetChangeNotif
      * @return always true.
      */
     public final boolean removeAllItems() {
-        queryView.removeAllItems();
-        refresh();
+        removeAllMatchingItems();
         return true;
     }
 
+    /**
+     * Removes all items matching the current filters and reports how many
+     * were removed.
+     *
+     * @return number of removed items or -1 if query does not report it.
+     */
+    public final int removeAllMatchingItems() {
+        final int removedCount;
+        if (queryView instanceof LazyQueryView) {
+            removedCount = ((LazyQueryView) queryView).removeAllMatchingItems();
+        } else {
+            queryView.removeAllItems();
+            removedCount = -1;
+        }
+        refresh();
+        return removedCount;
+    }
+
     /**
      * Adds ItemSetChangeListener.
      *
@@ -575,6 +625,24 @@ public class LazyQueryContainer implements Indexed, Sortable, ItemSetChangeNotif
 
     }
 
+    /**
+     * Private QuerySizeChangeListener implementation which notifies item set
+     * change when query view grows or shrinks estimated query size.
+     *
+     * @author Tommi S.E. Laukkanen
+     */
+    private class QueryViewSizeChangeListener implements QuerySizeChangeListener {
+        /**
+         * Java serialization version UID.
+         */
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public void querySizeChanged(final int querySize) {
+            notifyItemSetChanged();
+        }
+    }
+
     /**
      * Private PropertySetChangeEvent implementation.
      *
@@ -650,8 +718,30 @@ public class LazyQueryContainer implements Indexed, Sortable, ItemSetChangeNotif
         return true;
     }
 
+    /**
+     * Gets item IDs of the given range. IDs of the range are loaded in bulk,
+     * from ID pages in ID only loading mode and otherwise with the items.
+     * Index IDs are served as a range of the current size without loading
+     * items. If query size is only estimated, the end of the range is
+     * resolved first so that the returned IDs exist.
+     *
+     * @param startIndex The index of the first item.
+     * @param numberOfItems The number of items.
+     * @return list of item IDs.
+     */
     @Override
     public final List<?> getItemIds(final int startIndex, final int numberOfItems) {
+        final int size = resolveSize((int) Math.min((long) startIndex + numberOfItems, Integer.MAX_VALUE));
+        final int count = Math.min(numberOfItems, size - startIndex);
+        if (startIndex >= 0 && count > 0 && queryView instanceof LazyQueryView
+                && queryView.getQueryDefinition().getIdPropertyId() != null) {
+            return ((LazyQueryView) queryView).getItemIds(startIndex, count);
+        }
+        final List<?> itemIdList = queryView.getItemIdList();
+        if (startIndex >= 0 && numberOfItems >= 0 && itemIdList instanceof NaturalNumberIdsList) {
+            // Index IDs are served as range of the ID list without allocating them.
+            return ((NaturalNumberIdsList) itemIdList).subList(startIndex, startIndex + Math.max(count, 0));
+        }
         return ContainerHelpers.getItemIdsUsingGetIdByIndex(startIndex, numberOfItems, this);
     }
 
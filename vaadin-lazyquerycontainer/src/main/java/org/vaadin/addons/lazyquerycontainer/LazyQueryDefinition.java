@@ -96,6 +96,10 @@ public class LazyQueryDefinition implements QueryDefinition, Serializable {
      * The max depth of nested properties.
      */
     private int maxNestedPropertyDepth = 0;
+    /**
+     * The policy deciding how many batches are prefetched.
+     */
+    private PrefetchPolicy prefetchPolicy = new DefaultPrefetchPolicy();
 
     /**
      * Constructor which sets the batch size.
@@ -456,4 +460,22 @@ public class LazyQueryDefinition implements QueryDefinition, Serializable {
     public final void setMaxNestedPropertyDepth(final int maxNestedPropertyDepth) {
         this.maxNestedPropertyDepth = maxNestedPropertyDepth;
     }
+
+    /**
+     * @return the policy deciding how many batches are prefetched.
+     */
+    public final PrefetchPolicy getPrefetchPolicy() {
+        return prefetchPolicy;
+    }
+
+    /**
+     * Sets the policy deciding how many batches are prefetched in scroll
+     * direction when the view has a prefetch executor. The view tracks
+     * scroll direction and velocity from the batches requested.
+     *
+     * @param prefetchPolicy the prefetch policy
+     */
+    public final void setPrefetchPolicy(final PrefetchPolicy prefetchPolicy) {
+        this.prefetchPolicy = prefetchPolicy;
+    }
 }
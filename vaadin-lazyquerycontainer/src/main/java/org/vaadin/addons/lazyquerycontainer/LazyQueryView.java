@@ -21,9 +21,15 @@ import com.vaadin.data.Property;
 import com.vaadin.data.Property.ValueChangeEvent;
 import com.vaadin.data.Property.ValueChangeListener;
 import com.vaadin.data.Property.ValueChangeNotifier;
+import com.vaadin.server.VaadinSession;
 
 import java.io.Serializable;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * Lazy loading implementation of QueryView. This implementation supports lazy
@@ -37,7 +43,7 @@ import java.util.*;
  *
  * @author Tommi S.E. Laukkanen
  */
-public final class LazyQueryView implements QueryView, ValueChangeListener, Serializable {
+public final class LazyQueryView implements QueryView, ItemModificationListener, ValueChangeListener, Serializable {
     /**
      * Java serialization UID.
      */
@@ -63,6 +69,26 @@ public final class LazyQueryView implements QueryView, ValueChangeListener, Seri
      * Initial maximum cache size.
      */
     private static final int DEFAULT_MAX_CACHE_SIZE = 1000;
+    /**
+     * Scroll velocity sample interval in milliseconds. Longer pauses start a new sample.
+     */
+    private static final long SCROLL_SAMPLE_MILLIS = 1000;
+    /**
+     * Milliseconds in second.
+     */
+    private static final double MILLIS_IN_SECOND = 1000;
+    /**
+     * Policy deciding prefetch depth when query definition does not define one.
+     */
+    private static final PrefetchPolicy DEFAULT_PREFETCH_POLICY = new DefaultPrefetchPolicy();
+    /**
+     * Maximum number of cached ID pages.
+     */
+    private static final int MAX_ID_PAGES = 100;
+    /**
+     * Maximum number of cached items loaded by ID.
+     */
+    private static final int MAX_LOOKUP_ITEMS = 100;
 
     /**
      * Maximum items in cache before old ones are evicted.
@@ -92,6 +118,19 @@ public final class LazyQueryView implements QueryView, ValueChangeListener, Seri
      * Size of the query.
      */
     private int querySize = -1;
+    /**
+     * False if query did not report its size and query size is an estimate.
+     */
+    private boolean querySizeKnown = true;
+    /**
+     * True if query size has changed since listeners were last notified.
+     */
+    private boolean querySizeChanged;
+    /**
+     * Listeners notified when estimated query size changes.
+     */
+    private final List<QuerySizeChangeListener> querySizeChangeListeners =
+            new ArrayList<QuerySizeChangeListener>();
     /**
      * Property IDs participating in sort.
      */
@@ -106,30 +145,112 @@ public final class LazyQueryView implements QueryView, ValueChangeListener, Seri
      */
     private List<?> itemIdList;
     /**
-     * List of item indexes in cache in order of access.
+     * Number of items in a cached page. Equals the batch size at the time the
+     * current query was constructed.
      */
-    private final LinkedList<Integer> itemCacheAccessLog = new LinkedList<Integer>();
+    private int pageSize;
     /**
-     * Map of items in cache.
+     * Pages of items in cache by page index in order of access.
      */
-    private final Map<Integer, Item> itemCache = new HashMap<Integer, Item>();
+    private final IntLruCache<Page> pageCache = new IntLruCache<Page>();
     /**
-     * Map from properties to items for items which are in cache.
+     * Number of item IDs loaded at a time in ID only loading mode or 0 if disabled.
      */
-    private Map<Property, Item> propertyItemMapCache = new HashMap<Property, Item>();
-
+    private int idPageSize = 0;
+    /**
+     * Pages of item IDs loaded in ID only loading mode by ID page index in order of access.
+     */
+    private final IntLruCache<Object[]> idPageCache = new IntLruCache<Object[]>();
+    /**
+     * Query indexes of the IDs of cached items and cached ID pages. Entries
+     * are removed when their page is evicted so the map is bounded by cache.
+     */
+    private final IdIndexMap idIndexMap = new IdIndexMap();
+    /**
+     * Items loaded by ID outside positional paging by item ID in order of access.
+     */
+    private final Map<Object, Item> lookupItems = new LinkedHashMap<Object, Item>(16, 0.75f, true);
+    /**
+     * Number of items in the cached pages.
+     */
+    private int cachedItemCount = 0;
+    /**
+     * Estimated weight of the cached pages in bytes.
+     */
+    private long cachedBytes = 0;
+    /**
+     * Maximum estimated weight of cached items in bytes or 0 if cache is limited by item count.
+     */
+    private long maxCacheBytes = 0;
+    /**
+     * Weigher estimating weight of items in bytes.
+     */
+    private ItemWeigher itemWeigher = new DefaultItemWeigher();
+    /**
+     * Index of the page which was loaded last.
+     */
+    private int lastPageIndex = 0;
+    /**
+     * Time when the last page was loaded.
+     */
+    private long lastPageTime = 0;
+    /**
+     * Last scroll direction, 1 for down and -1 for up.
+     */
+    private int scrollDirection = 1;
+    /**
+     * Smoothed scroll velocity in pages per second.
+     */
+    private double scrollVelocity = 0;
+    /**
+     * Executor for loading adjacent pages in background or null if prefetch is disabled.
+     */
+    private transient Executor prefetchExecutor;
+    /**
+     * Executor for counting query items in background or null if count is synchronous.
+     */
+    private transient Executor countExecutor;
+    /**
+     * Pending background count or null if none.
+     */
+    private transient Count pendingCount;
+    /**
+     * Minimum batch size in adaptive batch size mode. Used as page size.
+     */
+    private int minBatchSize;
+    /**
+     * Maximum batch size in adaptive batch size mode.
+     */
+    private int maxBatchSize;
+    /**
+     * Target batch query time in milliseconds or 0 if adaptive batch size is disabled.
+     */
+    private long targetBatchQueryTime = 0;
+    /**
+     * Batch size adapted to batch query time or 0 if adaptive batch size is
+     * disabled. Query definition batch size is left as configured.
+     */
+    private int adaptedBatchSize = 0;
+    /**
+     * Pending and completed prefetches by page index. Only accessed from the thread holding the session lock.
+     */
+    private transient Map<Integer, Prefetch> prefetches;
+    /**
+     * Lock serializing query invocations between request thread and prefetch executor.
+     */
+    private final Object[] queryLock = new Object[0];
     /**
      * List of added items since last commit/rollback.
      */
-    private final List<Item> addedItems = new ArrayList<Item>();
+    private final List<Item> addedItems = new IdentityList<Item>();
     /**
      * List of modified items since last commit/rollback.
      */
-    private final List<Item> modifiedItems = new ArrayList<Item>();
+    private final List<Item> modifiedItems = new IdentityList<Item>();
     /**
      * List of deleted items since last commit/rollback.
      */
-    private final List<Item> removedItems = new ArrayList<Item>();
+    private final List<Item> removedItems = new IdentityList<Item>();
 
     /**
      * Constructs LazyQueryView with given QueryDefinition and QueryFactory. The
@@ -181,203 +302,1005 @@ public final class LazyQueryView implements QueryView, ValueChangeListener, Seri
     }
 
     /**
-     * Refreshes the view by clearing cache, discarding buffered changes and
-     * current query instance. New query is created on demand.
+     * Refreshes the view by clearing cache, discarding buffered changes and
+     * current query instance. New query is created on demand.
+     */
+    @Override
+    public void refresh() {
+        for (final Page page : pageCache.values()) {
+            for (final Item item : page.items) {
+                untrackModifications(item);
+            }
+        }
+        for (final Item item : lookupItems.values()) {
+            untrackModifications(item);
+        }
+        lookupItems.clear();
+
+        cancelPrefetches();
+        cancelCount();
+        query = null;
+        batchCount = 0;
+        lastPageIndex = 0;
+        lastPageTime = 0;
+        scrollDirection = 1;
+        scrollVelocity = 0;
+        itemIdList = null;
+        pageCache.clear();
+        idPageCache.clear();
+        idIndexMap.clear();
+        cachedItemCount = 0;
+        cachedBytes = 0;
+
+        discard();
+    }
+
+    /**
+     * Returns the total size of query and added items since last commit.
+     *
+     * @return total number of items in the view.
+     */
+    @Override
+    public int size() {
+        return getQuerySize() + addedItems.size();
+    }
+
+    /**
+     * Resolves the size of the view far enough that items below the given
+     * size can be indexed. If query size is only estimated, batches are
+     * loaded until the end of the query has been detected or the item at
+     * index minSize - 1 has been loaded, so that the size does not shrink
+     * below minSize when the items are indexed. If minSize exceeds the
+     * estimate, pending background count is waited for first. Has no effect
+     * if query size is known.
+     *
+     * @param minSize the number of leading items to resolve or Integer.MAX_VALUE to resolve the end of the query.
+     * @return the size of the view.
+     */
+    public int resolveSize(final int minSize) {
+        if (minSize > size() && !querySizeKnown && pendingCount != null) {
+            try {
+                pendingCount.get();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (final ExecutionException e) {
+                // Count is retried and the failure reported by applyCount.
+            }
+            applyCount();
+        }
+        while (!querySizeKnown) {
+            final int queryIndex = Math.min(minSize - addedItems.size(), querySize) - 1;
+            if (queryIndex < 0) {
+                break;
+            }
+            final Page page = pageCache.peek(queryIndex / pageSize);
+            if (page != null && queryIndex % pageSize < page.items.length) {
+                break;
+            }
+            queryPage(queryIndex / pageSize);
+        }
+        return size();
+    }
+
+    /**
+     * Gets the batch size i.e. how many items is fetched at a time from
+     * storage.
+     *
+     * @return the batch size.
+     */
+    public int getBatchSize() {
+        if (adaptedBatchSize > 0) {
+            return adaptedBatchSize;
+        }
+        return queryDefinition.getBatchSize();
+    }
+
+    /**
+     * @return the maxCacheSize
+     */
+    @Override
+    public int getMaxCacheSize() {
+        return maxCacheSize;
+    }
+
+    /**
+     * @param maxCacheSize the maxCacheSize to set
+     */
+    @Override
+    public void setMaxCacheSize(final int maxCacheSize) {
+        this.maxCacheSize = maxCacheSize;
+    }
+
+    /**
+     * @return the maximum estimated weight of cached items in bytes or 0 if cache is limited by item count.
+     */
+    public long getMaxCacheBytes() {
+        return maxCacheBytes;
+    }
+
+    /**
+     * Sets byte budget for cache. When set cache is limited by the estimated
+     * weight of cached items instead of max cache size. Applies to items
+     * loaded after the budget is set.
+     *
+     * @param maxCacheBytes the maximum estimated weight in bytes or 0 to limit by item count.
+     */
+    public void setMaxCacheBytes(final long maxCacheBytes) {
+        this.maxCacheBytes = maxCacheBytes;
+    }
+
+    /**
+     * @return the number of item IDs loaded at a time in ID only loading mode or 0 if disabled.
+     */
+    public int getIdPageSize() {
+        return idPageSize;
+    }
+
+    /**
+     * Sets ID only loading mode. When enabled and query implements
+     * IdLoadingQuery the item ID list loads IDs of items which are not in
+     * cache in pages of given size without constructing the items.
+     *
+     * @param idPageSize the number of item IDs loaded at a time or 0 to disable.
+     */
+    public void setIdPageSize(final int idPageSize) {
+        if (idPageSize < 0) {
+            throw new IllegalArgumentException("ID page size can not be negative: " + idPageSize);
+        }
+        while (!idPageCache.isEmpty()) {
+            final int idPageIndex = idPageCache.getEldestKey();
+            removeIdIndexes(idPageIndex, idPageCache.remove(idPageIndex));
+        }
+        this.idPageSize = idPageSize;
+    }
+
+    /**
+     * @return the weigher estimating weight of cached items.
+     */
+    public ItemWeigher getItemWeigher() {
+        return itemWeigher;
+    }
+
+    /**
+     * @param itemWeigher the weigher estimating weight of cached items.
+     */
+    public void setItemWeigher(final ItemWeigher itemWeigher) {
+        this.itemWeigher = itemWeigher;
+    }
+
+    /**
+     * @return the executor used to prefetch adjacent batches or null if prefetch is disabled.
+     */
+    public Executor getPrefetchExecutor() {
+        return prefetchExecutor;
+    }
+
+    /**
+     * Sets executor for loading the batches following the last served batch
+     * in background. Loaded batches are merged to cache when requested. The
+     * query is never invoked concurrently by the view, but it is invoked from
+     * the executor thread. Prefetch is therefore done only for queries which
+     * implement BackgroundLoadQuery and support it, as EntityQuery does when
+     * constructed with entity manager factory. Other queries are loaded on
+     * demand as without executor. Executor is not serialized with the view.
+     *
+     * @param prefetchExecutor the executor or null to disable prefetch.
+     */
+    public void setPrefetchExecutor(final Executor prefetchExecutor) {
+        if (prefetchExecutor == null) {
+            cancelPrefetches();
+        }
+        this.prefetchExecutor = prefetchExecutor;
+    }
+
+    /**
+     * @return the executor used to count query items in background or null if count is synchronous.
+     */
+    public Executor getCountExecutor() {
+        return countExecutor;
+    }
+
+    /**
+     * Sets executor for counting query items in background. Until the count
+     * completes the view reports a provisional size estimated from loaded
+     * batches and notifies query size change listeners when exact size
+     * arrives. Query size is invoked concurrently with item loading only if
+     * query implements ConcurrentCountQuery and supports it, as EntityQuery
+     * does when constructed with entity manager factory. Otherwise count
+     * holds the query lock and loads wait for it. Executor is not serialized
+     * with the view.
+     *
+     * @param countExecutor the executor or null to count synchronously.
+     */
+    public void setCountExecutor(final Executor countExecutor) {
+        this.countExecutor = countExecutor;
+    }
+
+    /**
+     * @return the minimum batch size in adaptive batch size mode.
+     */
+    public int getMinBatchSize() {
+        return minBatchSize;
+    }
+
+    /**
+     * @return the maximum batch size in adaptive batch size mode.
+     */
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    /**
+     * @return the target batch query time in milliseconds or 0 if adaptive batch size is disabled.
+     */
+    public long getTargetBatchQueryTime() {
+        return targetBatchQueryTime;
+    }
+
+    /**
+     * Enables adaptive batch size mode in which the batch size of the view
+     * is adjusted after each batch toward the size which can be loaded in
+     * the target time. Batch size is kept within the bounds and is a multiple
+     * of the minimum batch size. Batch size of the query definition is left
+     * as configured. Takes effect when view is refreshed.
+     *
+     * @param minBatchSize the minimum batch size
+     * @param maxBatchSize the maximum batch size
+     * @param targetBatchQueryTime the target batch query time in milliseconds or 0 to disable.
+     */
+    public void setAdaptiveBatchSize(final int minBatchSize, final int maxBatchSize, final long targetBatchQueryTime) {
+        if (targetBatchQueryTime > 0 && (minBatchSize < 1 || maxBatchSize < minBatchSize)) {
+            throw new IllegalArgumentException("Invalid batch size bounds: " + minBatchSize + " - " + maxBatchSize);
+        }
+        this.minBatchSize = minBatchSize;
+        this.maxBatchSize = maxBatchSize;
+        this.targetBatchQueryTime = targetBatchQueryTime;
+    }
+
+    /**
+     * Gets item with given ID. If index of the item is known and its page is
+     * cached the item is served from page cache. Otherwise item is loaded by
+     * ID if query implements ItemLookupQuery so that positional paging is not
+     * disturbed. Items loaded by ID are cached separately and shared with the
+     * pages loaded later.
+     *
+     * @param itemId The ID of the item.
+     * @return the item or null if view does not contain the item.
+     */
+    public Item getItemById(final Object itemId) {
+        final Object idPropertyId = queryDefinition.getIdPropertyId();
+        if (idPropertyId != null && getQuery() instanceof ItemLookupQuery) {
+            final int index = ((LazyIdList<?>) getItemIdList()).indexOfKnown(itemId);
+            final int queryIndex = index - addedItems.size();
+            if (index >= 0 && (queryIndex < 0 || pageCache.containsKey(queryIndex / pageSize))) {
+                return getItem(index);
+            }
+            Item item = lookupItems.get(itemId);
+            if (item == null) {
+                synchronized (queryLock) {
+                    item = ((ItemLookupQuery) getQuery()).loadItemById(itemId);
+                }
+                if (item == null) {
+                    return null;
+                }
+                trackModifications(item);
+                lookupItems.put(itemId, item);
+                evictLookupItems();
+            }
+            return item;
+        }
+        final int index = getItemIdList().indexOf(itemId);
+        if (index == -1) {
+            return null;
+        }
+        return getItem(index);
+    }
+
+    /**
+     * Evicts least recently used items loaded by ID until their number does
+     * not exceed maximum. Modified and removed items are kept.
+     */
+    private void evictLookupItems() {
+        int excessCount = lookupItems.size() - MAX_LOOKUP_ITEMS;
+        final Iterator<Item> iterator = lookupItems.values().iterator();
+        while (excessCount > 0 && iterator.hasNext()) {
+            final Item item = iterator.next();
+            if (!modifiedItems.contains(item) && !removedItems.contains(item)) {
+                untrackModifications(item);
+                iterator.remove();
+                excessCount--;
+            }
+        }
+    }
+
+    /**
+     * Replaces loaded item with the item loaded earlier by ID, if any, so
+     * that the same row is represented by single item instance.
+     *
+     * @param item the loaded item
+     * @return the item to be cached in page
+     */
+    private Item shareLookupItem(final Item item) {
+        final Object itemId = item.getItemProperty(queryDefinition.getIdPropertyId()).getValue();
+        final Item lookupItem = lookupItems.remove(itemId);
+        if (lookupItem == null) {
+            return item;
+        }
+        untrackModifications(lookupItem);
+        return lookupItem;
+    }
+
+    /**
+     * Gets item at given index from addedItems, cache and loads new batch on
+     * demand if required. If query size is estimated the loaded batch may
+     * reveal that the query ends before the index. The size is then shrunk
+     * and IndexOutOfBoundsException is thrown.
+     *
+     * @param index The item index.
+     * @return the item at given index.
+     */
+    @Override
+    public Item getItem(final int index) {
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException("Container size: " + size() + " and item index  requested: " + index);
+        }
+        final int addedItemCount = addedItems.size();
+        if (index < addedItemCount) {
+            // an item from the addedItems was requested
+            return addedItems.get(index);
+        }
+        // get page from cache and refresh its place in access order
+        final int queryIndex = index - addedItemCount;
+        final int pageIndex = queryIndex / pageSize;
+        Page page = pageCache.get(pageIndex);
+        if (page == null) {
+            // page is not in our cache, ask the query for the batch
+            page = queryPage(pageIndex);
+        }
+        if (page == null || queryIndex % pageSize >= page.items.length) {
+            // Estimated query size shrank to the detected end of the query.
+            throw new IndexOutOfBoundsException("Container size: " + size() + " and item index  requested: " + index);
+        }
+        return page.items[queryIndex % pageSize];
+    }
+
+    /**
+     * Gets items in the given range. Pages of the range missing from cache
+     * are loaded so that each contiguous gap is loaded with single query
+     * invocation.
+     *
+     * @param startIndex The index of the first item.
+     * @param count The number of items.
+     * @return list of items in the range.
+     */
+    public List<Item> getItems(final int startIndex, final int count) {
+        if (startIndex < 0 || count < 0 || startIndex + count > size()) {
+            throw new IndexOutOfBoundsException("Container size: " + size() + " and item range requested: "
+                    + startIndex + " - " + (startIndex + count));
+        }
+        final List<Item> rangeItems = new ArrayList<Item>(count);
+        final int addedItemCount = addedItems.size();
+        for (int i = startIndex; i < Math.min(addedItemCount, startIndex + count); i++) {
+            rangeItems.add(addedItems.get(i));
+        }
+        final int queryStartIndex = Math.max(0, startIndex - addedItemCount);
+        final int queryEndIndex = startIndex + count - addedItemCount;
+        if (queryEndIndex <= queryStartIndex) {
+            return rangeItems;
+        }
+
+        final int firstPageIndex = queryStartIndex / pageSize;
+        final int lastPageIndex = (queryEndIndex - 1) / pageSize;
+        updateScrollState(lastPageIndex);
+
+        final Page[] rangePages = new Page[lastPageIndex - firstPageIndex + 1];
+        for (int pageIndex = firstPageIndex; pageIndex <= lastPageIndex; pageIndex++) {
+            Page page = pageCache.get(pageIndex);
+            if (page == null) {
+                final Prefetch prefetch = prefetches != null ? prefetches.get(pageIndex) : null;
+                final Batch batch;
+                if (prefetch != null) {
+                    removePrefetch(prefetch);
+                    batch = getPrefetchedBatch(prefetch);
+                } else {
+                    int gapLastPageIndex = pageIndex;
+                    while (gapLastPageIndex < lastPageIndex && isPageLoadable(gapLastPageIndex + 1)) {
+                        gapLastPageIndex++;
+                    }
+                    batch = loadBatch(getQuery(), createBatch(pageIndex, gapLastPageIndex));
+                }
+                updateQuerySize(batch);
+                addBatch(batch);
+                adaptBatchSize(batch);
+                page = pageCache.get(pageIndex);
+            }
+            rangePages[pageIndex - firstPageIndex] = page;
+        }
+
+        for (int i = queryStartIndex; i < queryEndIndex; i++) {
+            final Page page = rangePages[i / pageSize - firstPageIndex];
+            if (page == null || i % pageSize >= page.items.length) {
+                // Estimated query size shrank to the detected end of the query.
+                break;
+            }
+            rangeItems.add(page.items[i % pageSize]);
+        }
+
+        evictPages();
+        schedulePrefetches(createBatch(firstPageIndex, lastPageIndex));
+        fireQuerySizeChange();
+
+        return rangeItems;
+    }
+
+    /**
+     * Query page of items and the surrounding batch of pages and add them to
+     * cache.
+     *
+     * @param pageIndex The index of the page to be queried.
+     * @return the page of items.
+     */
+    private Page queryPage(final int pageIndex) {
+        updateScrollState(pageIndex);
+
+        // use prefetched batch if available or load more items
+        final Prefetch prefetch = prefetches != null ? prefetches.get(pageIndex) : null;
+        final Batch batch;
+        if (prefetch != null) {
+            removePrefetch(prefetch);
+            batch = getPrefetchedBatch(prefetch);
+        } else {
+            batch = loadBatch(getQuery(), createBatchInDirection(pageIndex, scrollDirection));
+        }
+
+        updateQuerySize(batch);
+        addBatch(batch);
+        adaptBatchSize(batch);
+
+        // Mark requested page as most recently used so that it is not evicted.
+        final Page page = pageCache.get(pageIndex);
+        evictPages();
+
+        schedulePrefetches(batch);
+        fireQuerySizeChange();
+
+        return page;
+    }
+
+    /**
+     * Grows estimated query size when loaded batch reaches the estimated end
+     * or fixes the size when batch is shorter than requested. Has no effect
+     * if query reported its size.
+     *
+     * @param batch The loaded batch.
+     */
+    private void updateQuerySize(final Batch batch) {
+        if (querySizeKnown) {
+            return;
+        }
+        final int loadedCount = batch.items.size();
+        if (loadedCount < batch.count) {
+            // Short batch reveals the end of the query.
+            batch.count = loadedCount;
+            setEstimatedQuerySize(batch.startIndex + loadedCount, true);
+        } else if (batch.startIndex + batch.count >= querySize) {
+            // Look ahead one batch beyond the loaded items.
+            setEstimatedQuerySize(batch.startIndex + batch.count + getBatchSize(), false);
+        }
+    }
+
+    /**
+     * Sets estimated query size bounded by maximum query size.
+     *
+     * @param estimatedQuerySize the estimated query size
+     * @param known true if the end of the query has been detected
+     */
+    private void setEstimatedQuerySize(final int estimatedQuerySize, final boolean known) {
+        final int previousQuerySize = querySize;
+        final int maxQuerySize = queryDefinition.getMaxQuerySize();
+        if (maxQuerySize > -1 && estimatedQuerySize >= maxQuerySize) {
+            querySize = maxQuerySize;
+            querySizeKnown = true;
+        } else {
+            querySize = estimatedQuerySize;
+            querySizeKnown = known;
+        }
+        if (querySize != previousQuerySize) {
+            querySizeChanged = true;
+            if (itemIdList instanceof NaturalNumberIdsList) {
+                // Index IDs are rebuilt for the new size.
+                itemIdList = null;
+            }
+        }
+    }
+
+    /**
+     * Notifies listeners if query size has changed.
+     */
+    private void fireQuerySizeChange() {
+        if (!querySizeChanged) {
+            return;
+        }
+        querySizeChanged = false;
+        for (final QuerySizeChangeListener listener
+                : new ArrayList<QuerySizeChangeListener>(querySizeChangeListeners)) {
+            listener.querySizeChanged(querySize);
+        }
+    }
+
+    /**
+     * Adds listener notified when query size changes without refresh.
+     *
+     * @param listener the listener
+     */
+    public void addQuerySizeChangeListener(final QuerySizeChangeListener listener) {
+        querySizeChangeListeners.add(listener);
+    }
+
+    /**
+     * Removes query size change listener.
+     *
+     * @param listener the listener
+     */
+    public void removeQuerySizeChangeListener(final QuerySizeChangeListener listener) {
+        querySizeChangeListeners.remove(listener);
+    }
+
+    /**
+     * Creates batch starting from the given page and extending in the given
+     * direction over pages which are not cached or being prefetched until
+     * batch size is reached.
+     *
+     * @param pageIndex The index of the first page in direction.
+     * @param direction The direction, 1 for following and -1 for preceding pages.
+     * @return the batch to be loaded.
+     */
+    private Batch createBatchInDirection(final int pageIndex, final int direction) {
+        final int maxPageCount = Math.max(1, getBatchSize() / pageSize);
+        int batchFirstPageIndex = pageIndex;
+        int batchLastPageIndex = pageIndex;
+        while (batchLastPageIndex - batchFirstPageIndex + 1 < maxPageCount) {
+            final int nextPageIndex = direction > 0 ? batchLastPageIndex + 1 : batchFirstPageIndex - 1;
+            if (!isPageLoadable(nextPageIndex)) {
+                break;
+            }
+            if (direction > 0) {
+                batchLastPageIndex = nextPageIndex;
+            } else {
+                batchFirstPageIndex = nextPageIndex;
+            }
+        }
+        return createBatch(batchFirstPageIndex, batchLastPageIndex);
+    }
+
+    /**
+     * Creates batch of the given pages.
+     *
+     * @param firstPageIndex The index of the first page.
+     * @param lastPageIndex The index of the last page.
+     * @return the batch to be loaded.
+     */
+    private Batch createBatch(final int firstPageIndex, final int lastPageIndex) {
+        final int startIndex = firstPageIndex * pageSize;
+        final int count = Math.min((lastPageIndex - firstPageIndex + 1) * pageSize, getQuerySize() - startIndex);
+        return new Batch(firstPageIndex, lastPageIndex, startIndex, count);
+    }
+
+    /**
+     * Checks whether page is within query bounds and is neither cached nor
+     * being prefetched.
+     *
+     * @param pageIndex The index of the page.
+     * @return true if page can be loaded.
+     */
+    private boolean isPageLoadable(final int pageIndex) {
+        return pageIndex >= 0 && pageIndex * pageSize < getQuerySize()
+                && !pageCache.containsKey(pageIndex)
+                && (prefetches == null || !prefetches.containsKey(pageIndex));
+    }
+
+    /**
+     * Loads batch of items from query.
+     *
+     * @param batchQuery The query to load items from.
+     * @param batch The batch to be loaded.
+     * @return the loaded batch.
+     */
+    private Batch loadBatch(final Query batchQuery, final Batch batch) {
+        synchronized (queryLock) {
+            final long queryStartTime = System.currentTimeMillis();
+            batch.items = batchQuery.loadItems(batch.startIndex, batch.count);
+            final long queryEndTime = System.currentTimeMillis();
+            batch.queryTime = queryEndTime - queryStartTime;
+            return batch;
+        }
+    }
+
+    /**
+     * Adds pages of loaded batch to cache. Pages which are already in cache
+     * are kept as they may contain modified items.
+     *
+     * @param batch The loaded batch.
+     */
+    private void addBatch(final Batch batch) {
+        final List<Item> items = batch.items;
+        for (int pageIndex = batch.firstPageIndex; pageIndex <= batch.lastPageIndex; pageIndex++) {
+            final int pageStartIndex = pageIndex * pageSize - batch.startIndex;
+            final int pageItemCount = Math.min(pageSize, batch.count - pageStartIndex);
+            if (pageCache.containsKey(pageIndex) || pageItemCount <= 0) {
+                continue;
+            }
+
+            final Item[] pageItems = new Item[pageItemCount];
+            for (int i = 0; i < pageItemCount; i++) {
+                final int batchItemIndex = pageStartIndex + i;
+                final Item item;
+
+                if (batchItemIndex >= items.size()) {
+                    item = constructItem();
+                } else if (lookupItems.isEmpty()) {
+                    item = items.get(batchItemIndex);
+                } else {
+                    item = shareLookupItem(items.get(batchItemIndex));
+                }
+
+                pageItems[i] = item;
+
+                if (item.getItemProperty(DEBUG_PROPERTY_ID_BATCH_INDEX) != null) {
+                    item.getItemProperty(DEBUG_PROPERTY_ID_BATCH_INDEX).setReadOnly(false);
+                    item.getItemProperty(DEBUG_PROPERTY_ID_BATCH_INDEX).setValue(batchCount);
+                    item.getItemProperty(DEBUG_PROPERTY_ID_BATCH_INDEX).setReadOnly(true);
+                }
+                if (item.getItemProperty(DEBUG_PROPERTY_ID_QUERY_INDEX) != null) {
+                    item.getItemProperty(DEBUG_PROPERTY_ID_QUERY_INDEX).setReadOnly(false);
+                    item.getItemProperty(DEBUG_PROPERTY_ID_QUERY_INDEX).setValue(queryCount);
+                    item.getItemProperty(DEBUG_PROPERTY_ID_QUERY_INDEX).setReadOnly(true);
+                }
+                if (item.getItemProperty(DEBUG_PROPERTY_ID_BATCH_QUERY_TIME) != null) {
+                    item.getItemProperty(DEBUG_PROPERTY_ID_BATCH_QUERY_TIME).setReadOnly(false);
+                    item.getItemProperty(DEBUG_PROPERTY_ID_BATCH_QUERY_TIME).setValue(batch.queryTime);
+                    item.getItemProperty(DEBUG_PROPERTY_ID_BATCH_QUERY_TIME).setReadOnly(true);
+                }
+
+                trackModifications(item);
+
+                if (batchItemIndex >= items.size()) {
+                    markRemoved(item);
+                } else if (queryDefinition.getIdPropertyId() != null) {
+                    final Object itemId = item.getItemProperty(queryDefinition.getIdPropertyId()).getValue();
+                    if (itemId != null) {
+                        idIndexMap.put(itemId, batch.startIndex + batchItemIndex);
+                    }
+                }
+            }
+
+            long pageWeight = 0;
+            if (maxCacheBytes > 0 && itemWeigher != null) {
+                for (final Item item : pageItems) {
+                    pageWeight += itemWeigher.weigh(item);
+                }
+            }
+
+            pageCache.put(pageIndex, new Page(pageItems, pageWeight));
+            cachedItemCount += pageItems.length;
+            cachedBytes += pageWeight;
+        }
+
+        // Increase batch count.
+        batchCount++;
+    }
+
+    /**
+     * Moves batch size halfway toward the size which would have been loaded
+     * in target batch query time, if adaptive batch size is enabled.
+     *
+     * @param batch The loaded batch.
+     */
+    private void adaptBatchSize(final Batch batch) {
+        if (targetBatchQueryTime <= 0 || batch.count == 0) {
+            return;
+        }
+        final long idealBatchSize;
+        if (batch.queryTime > 0) {
+            idealBatchSize = batch.count * targetBatchQueryTime / batch.queryTime;
+        } else {
+            idealBatchSize = maxBatchSize;
+        }
+        adaptedBatchSize = alignBatchSize((getBatchSize() + idealBatchSize) / 2);
+    }
+
+    /**
+     * Limits batch size within adaptive batch size bounds and rounds it down
+     * to a multiple of page size.
+     *
+     * @param batchSize The batch size.
+     * @return the aligned batch size.
+     */
+    private int alignBatchSize(final long batchSize) {
+        final int boundedBatchSize = (int) Math.max(minBatchSize, Math.min(maxBatchSize, batchSize));
+        return Math.max(pageSize, boundedBatchSize - boundedBatchSize % pageSize);
+    }
+
+    /**
+     * Waits for prefetched batch. If prefetch failed the batch is loaded
+     * synchronously so that errors are reported in the request thread.
+     *
+     * @param prefetch The prefetch.
+     * @return the loaded batch.
+     */
+    private Batch getPrefetchedBatch(final Prefetch prefetch) {
+        try {
+            return prefetch.get();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (final ExecutionException e) {
+            // Retried below.
+        }
+        return loadBatch(getQuery(), prefetch.batch);
+    }
+
+    /**
+     * Updates scroll direction and velocity from the index of the loaded page.
+     *
+     * @param pageIndex The index of the page loaded.
+     */
+    private void updateScrollState(final int pageIndex) {
+        final long now = System.currentTimeMillis();
+        final int pageDelta = pageIndex - lastPageIndex;
+        if (pageDelta != 0) {
+            scrollDirection = pageDelta > 0 ? 1 : -1;
+        }
+        final long elapsed = Math.max(1, now - lastPageTime);
+        final double velocity = Math.abs(pageDelta) * MILLIS_IN_SECOND / elapsed;
+        if (elapsed > SCROLL_SAMPLE_MILLIS) {
+            scrollVelocity = velocity;
+        } else {
+            scrollVelocity = (scrollVelocity + velocity) / 2;
+        }
+        lastPageIndex = pageIndex;
+        lastPageTime = now;
+    }
+
+    /**
+     * Schedules background loading of the batches following the given batch
+     * in scroll direction if prefetch executor has been set. Prefetch depth
+     * is decided by prefetch policy. Pending prefetches outside the prefetch
+     * window are cancelled so that pages skipped while scrolling are not
+     * loaded.
+     *
+     * @param batch The batch served.
      */
-    @Override
-    public void refresh() {
+    private void schedulePrefetches(final Batch batch) {
+        if (prefetchExecutor == null || !isBackgroundLoadSupported(getQuery())) {
+            return;
+        }
+        if (prefetches == null) {
+            prefetches = new HashMap<Integer, Prefetch>();
+        }
+        final PrefetchPolicy prefetchPolicy = queryDefinition instanceof LazyQueryDefinition
+                ? ((LazyQueryDefinition) queryDefinition).getPrefetchPolicy() : DEFAULT_PREFETCH_POLICY;
+        final int depth = prefetchPolicy != null ? prefetchPolicy.getPrefetchDepth(scrollDirection, scrollVelocity) : 1;
+        final int windowPageCount = depth * Math.max(1, getBatchSize() / pageSize);
+        final int windowFirstPageIndex;
+        final int windowLastPageIndex;
+        if (scrollDirection > 0) {
+            windowFirstPageIndex = batch.lastPageIndex + 1;
+            windowLastPageIndex = batch.lastPageIndex + windowPageCount;
+        } else {
+            windowFirstPageIndex = batch.firstPageIndex - windowPageCount;
+            windowLastPageIndex = batch.firstPageIndex - 1;
+        }
 
-        for (final Property property : propertyItemMapCache.keySet()) {
-            if (property instanceof ValueChangeNotifier) {
-                final ValueChangeNotifier notifier = (ValueChangeNotifier) property;
-                notifier.removeValueChangeListener(this);
+        final Iterator<Prefetch> iterator = prefetches.values().iterator();
+        while (iterator.hasNext()) {
+            final Prefetch prefetch = iterator.next();
+            if (prefetch.batch.lastPageIndex < windowFirstPageIndex
+                    || prefetch.batch.firstPageIndex > windowLastPageIndex) {
+                prefetch.cancel(false);
+                iterator.remove();
             }
         }
 
-        query = null;
-        batchCount = 0;
-        itemIdList = null;
-        itemCache.clear();
-        itemCacheAccessLog.clear();
-        propertyItemMapCache.clear();
-
-        discard();
+        for (int i = 0; i < windowPageCount; i++) {
+            final int pageIndex = scrollDirection > 0 ? windowFirstPageIndex + i : windowLastPageIndex - i;
+            if (isPageLoadable(pageIndex)) {
+                schedulePrefetch(createBatchInDirection(pageIndex, scrollDirection));
+            }
+        }
     }
 
     /**
-     * Returns the total size of query and added items since last commit.
+     * Checks whether query can be loaded on prefetch executor thread.
      *
-     * @return total number of items in the view.
+     * @param prefetchQuery the query
+     * @return true if query supports loading in background.
      */
-    @Override
-    public int size() {
-        return getQuerySize() + addedItems.size();
+    private static boolean isBackgroundLoadSupported(final Query prefetchQuery) {
+        return prefetchQuery instanceof BackgroundLoadQuery
+                && ((BackgroundLoadQuery) prefetchQuery).isBackgroundLoadSupported();
     }
 
     /**
-     * Gets the batch size i.e. how many items is fetched at a time from
-     * storage.
+     * Schedules background loading of the given batch.
      *
-     * @return the batch size.
+     * @param batch The batch to be loaded.
      */
-    public int getBatchSize() {
-        return queryDefinition.getBatchSize();
+    private void schedulePrefetch(final Batch batch) {
+        final Query prefetchQuery = getQuery();
+        final Prefetch prefetch = new Prefetch(batch, new Callable<Batch>() {
+            @Override
+            public Batch call() {
+                return loadBatch(prefetchQuery, batch);
+            }
+        });
+        for (int pageIndex = batch.firstPageIndex; pageIndex <= batch.lastPageIndex; pageIndex++) {
+            prefetches.put(pageIndex, prefetch);
+        }
+        try {
+            prefetchExecutor.execute(prefetch);
+        } catch (final RejectedExecutionException e) {
+            removePrefetch(prefetch);
+        }
     }
 
     /**
-     * @return the maxCacheSize
+     * Removes prefetch from pending prefetches.
+     *
+     * @param prefetch The prefetch.
      */
-    @Override
-    public int getMaxCacheSize() {
-        return maxCacheSize;
+    private void removePrefetch(final Prefetch prefetch) {
+        for (int pageIndex = prefetch.batch.firstPageIndex; pageIndex <= prefetch.batch.lastPageIndex; pageIndex++) {
+            prefetches.remove(pageIndex);
+        }
     }
 
     /**
-     * @param maxCacheSize the maxCacheSize to set
+     * Cancels pending prefetches and discards completed ones.
      */
-    @Override
-    public void setMaxCacheSize(final int maxCacheSize) {
-        this.maxCacheSize = maxCacheSize;
+    private void cancelPrefetches() {
+        if (prefetches == null) {
+            return;
+        }
+        for (final Prefetch prefetch : prefetches.values()) {
+            prefetch.cancel(false);
+        }
+        prefetches.clear();
     }
 
     /**
-     * Gets item at given index from addedItems, cache and loads new batch on
-     * demand if required.
+     * Schedules background count of query items.
      *
-     * @param index The item index.
-     * @return the item at given index.
+     * @param countQuery The query to count.
      */
-    @Override
-    public Item getItem(final int index) {
-        if (index < 0 || index >= size()) {
-            throw new IndexOutOfBoundsException("Container size: " + size() + " and item index  requested: " + index);
+    private void scheduleCount(final Query countQuery) {
+        pendingCount = new Count(countQuery, VaadinSession.getCurrent());
+        try {
+            countExecutor.execute(pendingCount);
+        } catch (final RejectedExecutionException e) {
+            pendingCount.run();
         }
-        final int addedItemCount = addedItems.size();
-        if (index < addedItemCount) {
-            // an item from the addedItems was requested
-            return addedItems.get(index);
+    }
+
+    /**
+     * Applies completed background count to query size and notifies query
+     * size change listeners. If count failed it is retried synchronously so
+     * that errors are reported in the request thread.
+     */
+    private void applyCount() {
+        if (pendingCount == null || !pendingCount.isDone()) {
+            return;
         }
-        if (!itemCache.containsKey(index - addedItemCount)) {
-            // item is not in our cache, ask the query for more items
-            queryItem(index - addedItemCount);
-        } else {
-            // item is already in our cache
-            // refresh cache access log.
-            itemCacheAccessLog.remove(new Integer(index));
-            itemCacheAccessLog.addLast(new Integer(index));
+        final Count count = pendingCount;
+        pendingCount = null;
+        int exactQuerySize;
+        try {
+            exactQuerySize = count.get();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        } catch (final ExecutionException e) {
+            synchronized (queryLock) {
+                exactQuerySize = count.countQuery.size();
+            }
+        }
+        if (exactQuerySize >= 0) {
+            setEstimatedQuerySize(exactQuerySize, true);
+            fireQuerySizeChange();
         }
+    }
 
-        return itemCache.get(index - addedItemCount);
+    /**
+     * Cancels pending background count.
+     */
+    private void cancelCount() {
+        if (pendingCount != null) {
+            pendingCount.cancel(false);
+            pendingCount = null;
+        }
     }
 
     /**
-     * Query item and the surrounding batch of items.
+     * Constructs new item with query.
      *
-     * @param index The index of item requested to be queried.
+     * @return the new item.
      */
-    private void queryItem(final int index) {
-        final int batchSize = getBatchSize();
-        final int startIndex = index - index % batchSize;
-        final int count = Math.min(batchSize, getQuerySize() - startIndex);
-
-        final long queryStartTime = System.currentTimeMillis();
-        // load more items
-        final List<Item> items = getQuery().loadItems(startIndex, count);
-        final long queryEndTime = System.currentTimeMillis();
-
-        for (int i = 0; i < count; i++) {
-            final int itemIndex = startIndex + i;
-
-            final Item item;
-
-            if (i >= items.size()) {
-                item = getQuery().constructItem();
-            } else {
-                item = items.get(i);
-            }
-
-            itemCache.put(itemIndex, item);
-
-            if (i >= items.size()) {
-                removeItem(itemIndex);
-            }
-
-            if (itemCacheAccessLog.contains(itemIndex)) {
-                itemCacheAccessLog.remove((Object) itemIndex);
-            }
-            itemCacheAccessLog.addLast(itemIndex);
+    private Item constructItem() {
+        synchronized (queryLock) {
+            return getQuery().constructItem();
         }
+    }
 
-        for (int i = 0; i < count; i++) {
-            final int itemIndex = startIndex + i;
-
-            final Item item = itemCache.get(itemIndex);
-
-            if (item.getItemProperty(DEBUG_PROPERTY_ID_BATCH_INDEX) != null) {
-                item.getItemProperty(DEBUG_PROPERTY_ID_BATCH_INDEX).setReadOnly(false);
-                item.getItemProperty(DEBUG_PROPERTY_ID_BATCH_INDEX).setValue(batchCount);
-                item.getItemProperty(DEBUG_PROPERTY_ID_BATCH_INDEX).setReadOnly(true);
-            }
-            if (item.getItemProperty(DEBUG_PROPERTY_ID_QUERY_INDEX) != null) {
-                item.getItemProperty(DEBUG_PROPERTY_ID_QUERY_INDEX).setReadOnly(false);
-                item.getItemProperty(DEBUG_PROPERTY_ID_QUERY_INDEX).setValue(queryCount);
-                item.getItemProperty(DEBUG_PROPERTY_ID_QUERY_INDEX).setReadOnly(true);
-            }
-            if (item.getItemProperty(DEBUG_PROPERTY_ID_BATCH_QUERY_TIME) != null) {
-                item.getItemProperty(DEBUG_PROPERTY_ID_BATCH_QUERY_TIME).setReadOnly(false);
-                item.getItemProperty(DEBUG_PROPERTY_ID_BATCH_QUERY_TIME).setValue(queryEndTime - queryStartTime);
-                item.getItemProperty(DEBUG_PROPERTY_ID_BATCH_QUERY_TIME).setReadOnly(true);
-            }
-
-            for (final Object propertyId : item.getItemPropertyIds()) {
-                final Property property = item.getItemProperty(propertyId);
-                if (property instanceof ValueChangeNotifier) {
-                    final ValueChangeNotifier notifier = (ValueChangeNotifier) property;
-                    notifier.addValueChangeListener(this);
-                    propertyItemMapCache.put(property, item);
-                }
-            }
-
-        }
+    /**
+     * Evicts least recently used pages from cache until the number of cached
+     * items does not exceed max cache size or, if max cache bytes is set,
+     * until the estimated weight of cached items does not exceed max cache
+     * bytes. Pages containing modified or removed items and the most recently
+     * loaded page are kept.
+     */
+    private void evictPages() {
+        int counter = 0;
+        while (isCacheFull() && pageCache.size() > 1) {
+            final int firstPageIndex = pageCache.getEldestKey();
+            final Page firstPage = pageCache.peek(firstPageIndex);
 
-        // Increase batch count.
-        batchCount++;
+            if (!isPageModified(firstPage)) {
+                pageCache.remove(firstPageIndex);
+                cachedItemCount -= firstPage.items.length;
+                cachedBytes -= firstPage.weight;
 
-        // Evict items from cache if cache size exceeds max cache size
-        int counter = 0;
-        while (itemCache.size() > maxCacheSize) {
-            final int firstIndex = itemCacheAccessLog.getFirst();
-            final Item firstItem = itemCache.get(firstIndex);
-
-            // Remove oldest item in cache access log if it is not modified or
-            // removed.
-            if (!modifiedItems.contains(firstItem) && !removedItems.contains(firstItem)) {
-                itemCacheAccessLog.removeFirst();
-                itemCache.remove(firstIndex);
-
-                for (final Object propertyId : firstItem.getItemPropertyIds()) {
-                    final Property property = firstItem.getItemProperty(propertyId);
-                    if (property instanceof ValueChangeNotifier) {
-                        final ValueChangeNotifier notifier = (ValueChangeNotifier) property;
-                        notifier.removeValueChangeListener(this);
-                        propertyItemMapCache.remove(property);
+                for (int i = 0; i < firstPage.items.length; i++) {
+                    final Item item = firstPage.items[i];
+                    untrackModifications(item);
+                    final int queryIndex = firstPageIndex * pageSize + i;
+                    if (queryDefinition.getIdPropertyId() != null
+                            && (idPageSize == 0 || !idPageCache.containsKey(queryIndex / idPageSize))) {
+                        final Object itemId = item.getItemProperty(queryDefinition.getIdPropertyId()).getValue();
+                        if (itemId != null) {
+                            idIndexMap.remove(itemId, queryIndex);
+                        }
                     }
                 }
-
             } else {
-                itemCacheAccessLog.removeFirst();
-                itemCacheAccessLog.addLast(firstIndex);
+                // Mark as recently used so that eviction continues from the next page.
+                pageCache.get(firstPageIndex);
             }
 
-            // Break from loop if entire cache has been iterated (all items are
+            // Break from loop if entire cache has been iterated (all pages are
             // modified).
             counter++;
-            if (counter > itemCache.size()) {
+            if (counter >= pageCache.size()) {
                 break;
             }
         }
     }
 
+    /**
+     * Checks whether cache exceeds its limit.
+     *
+     * @return true if cache exceeds max cache bytes or, if not set, max cache size.
+     */
+    private boolean isCacheFull() {
+        if (maxCacheBytes > 0) {
+            return cachedBytes > maxCacheBytes;
+        }
+        return cachedItemCount > maxCacheSize;
+    }
+
+    /**
+     * Checks whether page contains modified or removed items.
+     *
+     * @param page the page
+     * @return true if page contains modified or removed items.
+     */
+    private boolean isPageModified(final Page page) {
+        for (final Item item : page.items) {
+            if (modifiedItems.contains(item) || removedItems.contains(item)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * Get the query size.
      * @return the query size
@@ -386,6 +1309,7 @@ public final class LazyQueryView implements QueryView, ValueChangeListener, Seri
         if (query == null) {
             getQuery();
         }
+        applyCount();
         return querySize;
     }
 
@@ -398,12 +1322,30 @@ public final class LazyQueryView implements QueryView, ValueChangeListener, Seri
         if (query == null) {
             queryDefinition.setSortPropertyIds(sortPropertyIds);
             queryDefinition.setSortPropertyAscendingStates(ascendingStates);
-            query = queryFactory.constructQuery(queryDefinition);
-            querySize = query.size();
+            synchronized (queryLock) {
+                query = queryFactory.constructQuery(queryDefinition);
+                querySize = countExecutor != null ? -1 : query.size();
+            }
+            if (targetBatchQueryTime > 0) {
+                pageSize = minBatchSize;
+                adaptedBatchSize = alignBatchSize(getBatchSize());
+            } else {
+                adaptedBatchSize = 0;
+                pageSize = queryDefinition.getBatchSize();
+            }
+            querySizeKnown = querySize >= 0;
+            querySizeChanged = false;
+            if (!querySizeKnown) {
+                // Estimate one batch until loaded batches tell more.
+                querySize = getBatchSize();
+            }
             if (queryDefinition.getMaxQuerySize() > -1 && queryDefinition.getMaxQuerySize() < querySize) {
                 querySize = queryDefinition.getMaxQuerySize();
             }
             queryCount++;
+            if (countExecutor != null) {
+                scheduleCount(query);
+            }
         }
         return query;
     }
@@ -416,7 +1358,7 @@ public final class LazyQueryView implements QueryView, ValueChangeListener, Seri
      */
     @Override
     public int addItem() {
-        final Item item = getQuery().constructItem();
+        final Item item = constructItem();
         if (item.getItemProperty(PROPERTY_ID_ITEM_STATUS) != null) {
             item.getItemProperty(PROPERTY_ID_ITEM_STATUS).setReadOnly(false);
             item.getItemProperty(PROPERTY_ID_ITEM_STATUS).setValue(QueryItemStatus.Added);
@@ -430,17 +1372,68 @@ public final class LazyQueryView implements QueryView, ValueChangeListener, Seri
     }
 
     /**
-     * Event handler for value change events. Adds the item to modified list if
-     * value was actually changed. Change can be committed or discarded with
-     * respective methods.
+     * Starts tracking modifications of cached item. Items implementing
+     * ModificationTrackingItem notify the view directly, for other items an
+     * adapter is registered to the properties.
+     *
+     * @param item the item
+     */
+    private void trackModifications(final Item item) {
+        if (item instanceof ModificationTrackingItem) {
+            ((ModificationTrackingItem) item).setItemModificationListener(this);
+        } else {
+            final PropertyModificationAdapter adapter = new PropertyModificationAdapter(this, item);
+            for (final Object propertyId : item.getItemPropertyIds()) {
+                final Property property = item.getItemProperty(propertyId);
+                if (property instanceof ValueChangeNotifier) {
+                    ((ValueChangeNotifier) property).addValueChangeListener(adapter);
+                }
+            }
+        }
+    }
+
+    /**
+     * Stops tracking modifications of item evicted from cache.
+     *
+     * @param item the item
+     */
+    private void untrackModifications(final Item item) {
+        if (item instanceof ModificationTrackingItem) {
+            ((ModificationTrackingItem) item).setItemModificationListener(null);
+        } else {
+            final PropertyModificationAdapter adapter = new PropertyModificationAdapter(this, item);
+            for (final Object propertyId : item.getItemPropertyIds()) {
+                final Property property = item.getItemProperty(propertyId);
+                if (property instanceof ValueChangeNotifier) {
+                    ((ValueChangeNotifier) property).removeValueChangeListener(adapter);
+                }
+            }
+        }
+    }
+
+    /**
+     * Event handler for value change events. Not used anymore as
+     * modifications are reported per item.
      *
      * @param event the ValueChangeEvent
+     * @deprecated Modifications are tracked with {@link #itemModified(Item, Property)}.
      */
+    @Deprecated
     @Override
     public void valueChange(final ValueChangeEvent event) {
-        final Property property = event.getProperty();
-        final Item item = propertyItemMapCache.get(property);
-        if (property == item.getItemProperty(PROPERTY_ID_ITEM_STATUS)) {
+    }
+
+    /**
+     * Event handler for item modifications. Adds the item to modified list if
+     * value was actually changed. Change can be committed or discarded with
+     * respective methods.
+     *
+     * @param item the modified item
+     * @param property the changed property
+     */
+    @Override
+    public void itemModified(final Item item, final Property property) {
+        if (property.equals(item.getItemProperty(PROPERTY_ID_ITEM_STATUS))) {
             return;
         }
         if (item.getItemProperty(PROPERTY_ID_ITEM_STATUS) != null
@@ -463,8 +1456,15 @@ public final class LazyQueryView implements QueryView, ValueChangeListener, Seri
      */
     @Override
     public void removeItem(final int index) {
-        final Item item = getItem(index);
+        markRemoved(getItem(index));
+    }
 
+    /**
+     * Adds item to the removed list and sets its properties read only.
+     *
+     * @param item the item to be removed.
+     */
+    private void markRemoved(final Item item) {
         if (item.getItemProperty(PROPERTY_ID_ITEM_STATUS) != null) {
             item.getItemProperty(PROPERTY_ID_ITEM_STATUS).setReadOnly(false);
             item.getItemProperty(PROPERTY_ID_ITEM_STATUS).setValue(QueryItemStatus.Removed);
@@ -485,7 +1485,143 @@ public final class LazyQueryView implements QueryView, ValueChangeListener, Seri
      */
     @Override
     public void removeAllItems() {
-        getQuery().deleteAllItems();
+        removeAllMatchingItems();
+    }
+
+    /**
+     * Removes all items in the view and reports how many were removed. This
+     * method is immediately commited to the storage.
+     *
+     * @return number of removed items or -1 if query does not report it.
+     */
+    public int removeAllMatchingItems() {
+        final Query currentQuery = getQuery();
+        synchronized (queryLock) {
+            if (currentQuery instanceof BulkDeleteQuery) {
+                return ((BulkDeleteQuery) currentQuery).bulkDeleteAllItems();
+            }
+            currentQuery.deleteAllItems();
+            return -1;
+        }
+    }
+
+    /**
+     * Gets ID of the item at given index. In ID only loading mode the ID is
+     * read from cached item if available and otherwise from ID page loaded
+     * from query so that the item is not constructed.
+     *
+     * @param index the index of the item
+     * @return the item ID
+     */
+    public Object getItemId(final int index) {
+        final int queryIndex = index - addedItems.size();
+        if (queryIndex >= 0 && idPageSize > 0 && getQuery() instanceof IdLoadingQuery) {
+            final Page page = pageCache.peek(queryIndex / pageSize);
+            if (page == null || queryIndex % pageSize >= page.items.length) {
+                final Object[] ids = getIdPage(queryIndex / idPageSize);
+                if (queryIndex % idPageSize < ids.length) {
+                    return ids[queryIndex % idPageSize];
+                }
+            }
+        }
+        return getItem(index).getItemProperty(queryDefinition.getIdPropertyId()).getValue();
+    }
+
+    /**
+     * Gets IDs of the items in the given range. In ID only loading mode IDs
+     * of items missing from cache are read from ID pages so that the items
+     * are not constructed. Otherwise missing items of the range are loaded
+     * in bulk.
+     *
+     * @param startIndex The index of the first item.
+     * @param count The number of items.
+     * @return list of item IDs in the range.
+     */
+    public List<Object> getItemIds(final int startIndex, final int count) {
+        final List<Object> itemIds = new ArrayList<Object>(count);
+        if (idPageSize > 0 && getQuery() instanceof IdLoadingQuery) {
+            final int endIndex = Math.min(startIndex + count, resolveSize(startIndex + count));
+            for (int i = startIndex; i < endIndex; i++) {
+                itemIds.add(getItemId(i));
+            }
+        } else {
+            for (final Item item : getItems(startIndex, count)) {
+                itemIds.add(item.getItemProperty(queryDefinition.getIdPropertyId()).getValue());
+            }
+        }
+        return itemIds;
+    }
+
+    /**
+     * Gets page of item IDs from cache or loads it from query.
+     *
+     * @param idPageIndex the index of the ID page
+     * @return the item IDs
+     */
+    private Object[] getIdPage(final int idPageIndex) {
+        Object[] ids = idPageCache.get(idPageIndex);
+        if (ids == null) {
+            final int startIndex = idPageIndex * idPageSize;
+            final int count = Math.min(idPageSize, getQuerySize() - startIndex);
+            synchronized (queryLock) {
+                ids = ((IdLoadingQuery) getQuery()).loadIds(startIndex, count).toArray();
+            }
+            idPageCache.put(idPageIndex, ids);
+            for (int i = 0; i < ids.length; i++) {
+                if (ids[i] != null) {
+                    idIndexMap.put(ids[i], startIndex + i);
+                }
+            }
+            if (idPageCache.size() > MAX_ID_PAGES) {
+                final int eldestIdPageIndex = idPageCache.getEldestKey();
+                removeIdIndexes(eldestIdPageIndex, idPageCache.remove(eldestIdPageIndex));
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Removes query indexes of evicted ID page unless their items are cached.
+     *
+     * @param idPageIndex the index of the ID page
+     * @param ids the item IDs of the page
+     */
+    private void removeIdIndexes(final int idPageIndex, final Object[] ids) {
+        for (int i = 0; i < ids.length; i++) {
+            final int queryIndex = idPageIndex * idPageSize + i;
+            if (ids[i] != null && !pageCache.containsKey(queryIndex / pageSize)) {
+                idIndexMap.remove(ids[i], queryIndex);
+            }
+        }
+    }
+
+    /**
+     * Gets query index of the item with given ID if the item or its ID page
+     * is cached.
+     *
+     * @param itemId the item ID
+     * @return the query index or -1 if not cached.
+     */
+    int getCachedQueryIndex(final Object itemId) {
+        return idIndexMap.get(itemId);
+    }
+
+    /**
+     * Looks up index of the item with given ID among query items from
+     * position aware query.
+     *
+     * @param itemId the item ID
+     * @return the query index, -1 if query does not contain the item or
+     *         PositionAwareQuery.UNKNOWN_INDEX if query can not resolve it.
+     */
+    public int lookupQueryIndex(final Object itemId) {
+        final Query currentQuery = getQuery();
+        if (!(currentQuery instanceof PositionAwareQuery)) {
+            return PositionAwareQuery.UNKNOWN_INDEX;
+        }
+        synchronized (queryLock) {
+            return ((PositionAwareQuery) currentQuery).indexOf(itemId);
+        }
     }
 
     /**
@@ -528,7 +1664,10 @@ public final class LazyQueryView implements QueryView, ValueChangeListener, Seri
         // Reverse added items so that they are saved in order of addition.
         final List<Item> addedItemReversed = new ArrayList<Item>(addedItems);
         Collections.reverse(addedItemReversed);
-        getQuery().saveItems(addedItemReversed, modifiedItems, removedItems);
+        final Query currentQuery = getQuery();
+        synchronized (queryLock) {
+            currentQuery.saveItems(addedItemReversed, modifiedItems, removedItems);
+        }
         addedItems.clear();
         modifiedItems.clear();
         removedItems.clear();
@@ -590,12 +1729,14 @@ public final class LazyQueryView implements QueryView, ValueChangeListener, Seri
     }
 
     /**
-     * Used to set implementation property item cache map.
+     * Used to set implementation property item cache map. Has no effect as
+     * modifications are tracked per item.
      *
      * @param propertyItemCacheMap the propertyItemMapCache to set
+     * @deprecated Property item cache map is not used anymore.
      */
+    @Deprecated
     public void setPropertyItemCacheMap(final Map<Property, Item> propertyItemCacheMap) {
-        this.propertyItemMapCache = propertyItemCacheMap;
     }
 
     /**
@@ -636,4 +1777,211 @@ public final class LazyQueryView implements QueryView, ValueChangeListener, Seri
     public Collection<Container.Filter> getFilters() {
         return queryDefinition.getFilters();
     }
+
+    /**
+     * Value change listener reporting property changes of an item which does
+     * not track modifications itself. Adapters are equal if they have same
+     * view and item so that adapter can be unregistered with a new instance.
+     */
+    private static final class PropertyModificationAdapter implements ValueChangeListener {
+        /**
+         * Java serialization version UID.
+         */
+        private static final long serialVersionUID = 1L;
+        /**
+         * The view to notify.
+         */
+        private final LazyQueryView view;
+        /**
+         * The item.
+         */
+        private final Item item;
+
+        /**
+         * Constructor which sets view and item.
+         *
+         * @param view the view to notify
+         * @param item the item
+         */
+        private PropertyModificationAdapter(final LazyQueryView view, final Item item) {
+            this.view = view;
+            this.item = item;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void valueChange(final ValueChangeEvent event) {
+            view.itemModified(item, event.getProperty());
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean equals(final Object o) {
+            if (!(o instanceof PropertyModificationAdapter)) {
+                return false;
+            }
+            final PropertyModificationAdapter other = (PropertyModificationAdapter) o;
+            return view == other.view && item == other.item;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(item);
+        }
+    }
+
+    /**
+     * Page of cached items.
+     */
+    private static final class Page implements Serializable {
+        /**
+         * Java serialization version UID.
+         */
+        private static final long serialVersionUID = 1L;
+        /**
+         * The items.
+         */
+        private final Item[] items;
+        /**
+         * Estimated weight of the items in bytes.
+         */
+        private final long weight;
+
+        /**
+         * Constructor which sets items and weight.
+         *
+         * @param items the items
+         * @param weight the estimated weight of the items in bytes
+         */
+        private Page(final Item[] items, final long weight) {
+            this.items = items;
+            this.weight = weight;
+        }
+    }
+
+    /**
+     * Batch of consecutive pages loaded from query with single query invocation.
+     */
+    private static final class Batch {
+        /**
+         * Index of the first page.
+         */
+        private final int firstPageIndex;
+        /**
+         * Index of the last page.
+         */
+        private final int lastPageIndex;
+        /**
+         * Index of the first item.
+         */
+        private final int startIndex;
+        /**
+         * Number of items.
+         */
+        private int count;
+        /**
+         * The loaded items or null if not loaded yet.
+         */
+        private List<Item> items;
+        /**
+         * Time spent in query in milliseconds.
+         */
+        private long queryTime;
+
+        /**
+         * Constructor which sets page and item ranges.
+         *
+         * @param firstPageIndex the index of the first page
+         * @param lastPageIndex the index of the last page
+         * @param startIndex the index of the first item
+         * @param count the number of items
+         */
+        private Batch(final int firstPageIndex, final int lastPageIndex, final int startIndex, final int count) {
+            this.firstPageIndex = firstPageIndex;
+            this.lastPageIndex = lastPageIndex;
+            this.startIndex = startIndex;
+            this.count = count;
+        }
+    }
+
+    /**
+     * Background count of query items. Applies the count in session lock
+     * when completed if scheduled from a request thread. Count holds the
+     * query lock unless query supports concurrent count.
+     */
+    private final class Count extends FutureTask<Integer> {
+        /**
+         * The query being counted.
+         */
+        private final Query countQuery;
+        /**
+         * The session to apply the count in or null if not available.
+         */
+        private final VaadinSession session;
+
+        /**
+         * Constructor which sets the query and the session.
+         *
+         * @param countQuery the query to count
+         * @param session the session or null
+         */
+        private Count(final Query countQuery, final VaadinSession session) {
+            super(new Callable<Integer>() {
+                @Override
+                public Integer call() {
+                    if (countQuery instanceof ConcurrentCountQuery
+                            && ((ConcurrentCountQuery) countQuery).isConcurrentCountSupported()) {
+                        return countQuery.size();
+                    }
+                    synchronized (queryLock) {
+                        return countQuery.size();
+                    }
+                }
+            });
+            this.countQuery = countQuery;
+            this.session = session;
+        }
+
+        @Override
+        protected void done() {
+            if (session != null && !isCancelled()) {
+                session.access(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (pendingCount == Count.this) {
+                            applyCount();
+                        }
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * Background load of a batch.
+     */
+    private static final class Prefetch extends FutureTask<Batch> {
+        /**
+         * The batch being loaded.
+         */
+        private final Batch batch;
+
+        /**
+         * Constructor which sets batch and the callable loading it.
+         *
+         * @param batch the batch
+         * @param callable the callable loading the batch
+         */
+        private Prefetch(final Batch batch, final Callable<Batch> callable) {
+            super(callable);
+            this.batch = batch;
+        }
+    }
 }
@@ -0,0 +1,34 @@
+/**
+ * Copyright 2010 Tommi S.E. Laukkanen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.lazyquerycontainer;
+
+import com.vaadin.data.Item;
+
+/**
+ * Item which reports changes of its property values to a single listener.
+ * Enables LazyQueryView to track modifications per item instead of
+ * registering itself to every property.
+ *
+ * @author Tommi S.E. Laukkanen
+ */
+public interface ModificationTrackingItem extends Item {
+    /**
+     * Sets the listener notified of property value changes.
+     *
+     * @param listener The listener or null to stop notifications.
+     */
+    void setItemModificationListener(ItemModificationListener listener);
+}
@@ -0,0 +1,239 @@
+/**
+ * Copyright 2010 Tommi S.E. Laukkanen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.lazyquerycontainer;
+
+import com.vaadin.data.Item;
+import com.vaadin.data.Property;
+
+import java.util.Map;
+
+/**
+ * Property handed out by modification tracking items. Reports value changes
+ * made through the property to the item relay without registering listeners
+ * to the underlying property. Items keep one instance per property ID once
+ * tracking has been enabled, so properties obtained earlier keep reporting.
+ * Instances are equal if they wrap the same property.
+ *
+ * @param <T> the property value type
+ * @author Tommi S.E. Laukkanen
+ */
+final class ModificationTrackingProperty<T> implements Property<T>, Property.ValueChangeNotifier,
+        Property.ReadOnlyStatusChangeNotifier {
+    /**
+     * Serial version UID for this class.
+     */
+    private static final long serialVersionUID = 1L;
+    /**
+     * The underlying property.
+     */
+    private final Property<T> property;
+    /**
+     * The item owning the property.
+     */
+    private final Item item;
+    /**
+     * The item relay to notify of value changes.
+     */
+    private final ItemModificationListener relay;
+
+    /**
+     * Constructor which sets the underlying property, the owning item and the relay.
+     *
+     * @param property the underlying property
+     * @param item the item owning the property
+     * @param relay the item relay to notify of value changes
+     */
+    ModificationTrackingProperty(final Property<T> property, final Item item, final ItemModificationListener relay) {
+        this.property = property;
+        this.item = item;
+        this.relay = relay;
+    }
+
+    /**
+     * Gets the wrapper of item property from the wrappers of the item. The
+     * wrapper is created if the property has not been wrapped yet or if the
+     * item property has been replaced, so each property is wrapped once.
+     *
+     * @param wrappers the wrappers of the item by property ID
+     * @param id the property ID
+     * @param property the property or null
+     * @param item the item owning the property
+     * @param relay the item relay to notify of value changes
+     * @return the wrapped property or null if property is null
+     */
+    @SuppressWarnings("unchecked")
+    static Property wrap(final Map<Object, ModificationTrackingProperty<?>> wrappers, final Object id,
+                         final Property property, final Item item, final ItemModificationListener relay) {
+        if (property == null) {
+            wrappers.remove(id);
+            return null;
+        }
+        ModificationTrackingProperty<?> wrapper = wrappers.get(id);
+        if (wrapper == null || wrapper.property != property) {
+            wrapper = new ModificationTrackingProperty<Object>(property, item, relay);
+            wrappers.put(id, wrapper);
+        }
+        return wrapper;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public T getValue() {
+        return property.getValue();
+    }
+
+    /**
+     * Sets value to the underlying property and notifies the item relay if
+     * the value changed.
+     *
+     * @param newValue the new value
+     */
+    @Override
+    public void setValue(final T newValue) {
+        final T oldValue = property.getValue();
+        property.setValue(newValue);
+        if (oldValue == null ? newValue != null : !oldValue.equals(newValue)) {
+            relay.itemModified(item, this);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Class<? extends T> getType() {
+        return property.getType();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isReadOnly() {
+        return property.isReadOnly();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setReadOnly(final boolean newStatus) {
+        property.setReadOnly(newStatus);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void addValueChangeListener(final ValueChangeListener listener) {
+        if (property instanceof ValueChangeNotifier) {
+            ((ValueChangeNotifier) property).addValueChangeListener(listener);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Deprecated
+    @Override
+    public void addListener(final ValueChangeListener listener) {
+        addValueChangeListener(listener);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void removeValueChangeListener(final ValueChangeListener listener) {
+        if (property instanceof ValueChangeNotifier) {
+            ((ValueChangeNotifier) property).removeValueChangeListener(listener);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Deprecated
+    @Override
+    public void removeListener(final ValueChangeListener listener) {
+        removeValueChangeListener(listener);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void addReadOnlyStatusChangeListener(final ReadOnlyStatusChangeListener listener) {
+        if (property instanceof ReadOnlyStatusChangeNotifier) {
+            ((ReadOnlyStatusChangeNotifier) property).addReadOnlyStatusChangeListener(listener);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Deprecated
+    @Override
+    public void addListener(final ReadOnlyStatusChangeListener listener) {
+        addReadOnlyStatusChangeListener(listener);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void removeReadOnlyStatusChangeListener(final ReadOnlyStatusChangeListener listener) {
+        if (property instanceof ReadOnlyStatusChangeNotifier) {
+            ((ReadOnlyStatusChangeNotifier) property).removeReadOnlyStatusChangeListener(listener);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Deprecated
+    @Override
+    public void removeListener(final ReadOnlyStatusChangeListener listener) {
+        removeReadOnlyStatusChangeListener(listener);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean equals(final Object o) {
+        return o instanceof ModificationTrackingProperty
+                && property.equals(((ModificationTrackingProperty<?>) o).property);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int hashCode() {
+        return property.hashCode();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return String.valueOf(property);
+    }
+}
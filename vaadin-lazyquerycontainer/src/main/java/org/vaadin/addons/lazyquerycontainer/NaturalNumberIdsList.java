@@ -16,11 +16,17 @@
 package org.vaadin.addons.lazyquerycontainer;
 
 import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
 import java.util.RandomAccess;
 
 /**
  * Natural numbers list implementation used in LazyQueryContainer.getItemIds
  * method. This list is immutable and contains integer numbers from 0 to size - 1.
+ * Sub lists are ranges sharing this implementation. Numbers can be read
+ * without boxing with getInt and the iterator. Array of the numbers is
+ * built on first toArray call and copies of it are returned.
  *
  * @author HRE@github.com, Tommi Laukkanen
  */
@@ -30,14 +36,18 @@ public final class NaturalNumberIdsList extends AbstractList<Integer> implements
      * Java serialization version UID.
      */
     private static final long serialVersionUID = 1L;
+    /**
+     * The first number of the list.
+     */
+    private final int first;
     /**
      * The size of the list.
      */
     private final int size;
     /**
-     * Array containing list values. This array is created on demand.
+     * The numbers of the list or null if toArray has not been called.
      */
-    private Integer[] array = null;
+    private transient Integer[] array;
 
     /**
      * Constructor which sets the size of the constructed list.
@@ -45,6 +55,17 @@ public final class NaturalNumberIdsList extends AbstractList<Integer> implements
      * @param size Size of the constructed list.
      */
     public NaturalNumberIdsList(final int size) {
+        this(0, size);
+    }
+
+    /**
+     * Constructor which sets the first number and the size of the constructed range.
+     *
+     * @param first The first number of the list.
+     * @param size Size of the constructed list.
+     */
+    private NaturalNumberIdsList(final int first, final int size) {
+        this.first = first;
         this.size = size;
     }
 
@@ -56,16 +77,26 @@ public final class NaturalNumberIdsList extends AbstractList<Integer> implements
     }
 
     /**
-     * {@inheritDoc}
+     * Gets the numbers of the list as array which is built on first call.
+     *
+     * @return the array shared by the toArray calls.
      */
-    public synchronized Integer[] toArray() {
+    private synchronized Integer[] getArray() {
         if (array == null) {
-            array = new Integer[size];
+            final Integer[] numbers = new Integer[size];
             for (int i = 0; i < size; i++) {
-                array[i] = i;
+                numbers[i] = first + i;
             }
+            array = numbers;
         }
-        return array.clone();
+        return array;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Integer[] toArray() {
+        return getArray().clone();
     }
 
     /**
@@ -74,11 +105,9 @@ public final class NaturalNumberIdsList extends AbstractList<Integer> implements
     @SuppressWarnings("unchecked")
     public <T> T[] toArray(final T[] a) {
         if (a.length < size) {
-            return (T[]) toArray();
-        }
-        for (int i = 0; i < size; i++) {
-            a[i] = (T) Integer.valueOf(i);
+            return (T[]) Arrays.copyOf(getArray(), size, a.getClass());
         }
+        System.arraycopy(getArray(), 0, a, 0, size);
         if (a.length > size) {
             a[size] = null;
         }
@@ -89,10 +118,30 @@ public final class NaturalNumberIdsList extends AbstractList<Integer> implements
      * {@inheritDoc}
      */
     public Integer get(final int index) {
+        return getInt(index);
+    }
+
+    /**
+     * Gets number at given index without boxing it.
+     *
+     * @param index the index
+     * @return the number at the index.
+     */
+    public int getInt(final int index) {
         if (index < 0 || index >= size) {
             throw new IndexOutOfBoundsException();
         }
-        return index;
+        return first + index;
+    }
+
+    /**
+     * Gets iterator over the numbers of the list. Numbers can be read
+     * without boxing with IntIterator.nextInt.
+     *
+     * @return the iterator.
+     */
+    public IntIterator iterator() {
+        return new IntIterator(first, first + size);
     }
 
     /**
@@ -110,7 +159,7 @@ public final class NaturalNumberIdsList extends AbstractList<Integer> implements
             return -1;
         }
         if (o instanceof Integer) {
-            int i = (Integer) o;
+            int i = (Integer) o - first;
             if (i < 0 || i >= size) {
                 return -1;
             }
@@ -119,10 +168,89 @@ public final class NaturalNumberIdsList extends AbstractList<Integer> implements
         return -1;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    public int lastIndexOf(final Object o) {
+        return indexOf(o);
+    }
+
     /**
      * {@inheritDoc}
      */
     public boolean contains(final Object o) {
         return indexOf(o) != -1;
     }
+
+    /**
+     * Gets range of this list in constant time.
+     *
+     * @param fromIndex low endpoint (inclusive) of the sub list
+     * @param toIndex high endpoint (exclusive) of the sub list
+     * @return the range
+     */
+    public NaturalNumberIdsList subList(final int fromIndex, final int toIndex) {
+        if (fromIndex < 0 || toIndex > size || fromIndex > toIndex) {
+            throw new IndexOutOfBoundsException("Invalid range: " + fromIndex + " - " + toIndex + " of " + size);
+        }
+        return new NaturalNumberIdsList(first + fromIndex, toIndex - fromIndex);
+    }
+
+    /**
+     * Iterator over range of numbers which can read the numbers without boxing.
+     */
+    public static final class IntIterator implements Iterator<Integer> {
+        /**
+         * The next number.
+         */
+        private int next;
+        /**
+         * The end of the range (exclusive).
+         */
+        private final int end;
+
+        /**
+         * Constructor which sets the range.
+         *
+         * @param first the first number
+         * @param end the end of the range (exclusive)
+         */
+        private IntIterator(final int first, final int end) {
+            this.next = first;
+            this.end = end;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public boolean hasNext() {
+            return next < end;
+        }
+
+        /**
+         * Gets next number without boxing it.
+         *
+         * @return the next number.
+         */
+        public int nextInt() {
+            if (next >= end) {
+                throw new NoSuchElementException();
+            }
+            return next++;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public Integer next() {
+            return nextInt();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
 }
@@ -16,6 +16,8 @@
  */
 package org.vaadin.addons.lazyquerycontainer;
 
+import com.vaadin.data.Item;
+import com.vaadin.data.Property;
 import com.vaadin.data.util.BeanItem;
 import com.vaadin.data.util.LazyNestedMethodProperty;
 import com.vaadin.data.util.MethodPropertyDescriptor;
@@ -37,12 +39,31 @@ import java.util.*;
  * @author Tommi S.E. Laukkanen
  */
 @SuppressWarnings("serial")
-public class NestingBeanItem<BT> extends BeanItem<BT> {
+public class NestingBeanItem<BT> extends BeanItem<BT> implements ModificationTrackingItem {
 
     /**
      * The max nested property depth.
      */
     private final int maxNestedPropertyDepth;
+    /**
+     * Listener notified of property value changes or null.
+     */
+    private ItemModificationListener itemModificationListener;
+    /**
+     * Relay notified by the properties handed out while modification tracking is on.
+     */
+    private final ItemModificationListener modificationRelay = new ItemModificationListener() {
+        @Override
+        public void itemModified(final Item item, final Property property) {
+            if (itemModificationListener != null) {
+                itemModificationListener.itemModified(item, property);
+            }
+        }
+    };
+    /**
+     * Tracking wrappers of the properties by property ID or null if modification tracking has not been enabled.
+     */
+    private Map<Object, ModificationTrackingProperty<?>> trackingProperties;
 
     /**
      * Constructor for defining the nested bean item parameters.
@@ -202,4 +223,41 @@ public class NestingBeanItem<BT> extends BeanItem<BT> {
             return Arrays.asList(info.getPropertyDescriptors());
         }
     }
+
+    /**
+     * Sets the listener notified of property value changes made through the
+     * properties of this item. No listeners are registered to the properties.
+     * Instead each property is wrapped once when the listener is first set
+     * and the wrappers are handed out from then on. Changes made directly to
+     * the underlying properties are not reported.
+     *
+     * @param listener The listener or null to stop notifications.
+     */
+    @Override
+    public void setItemModificationListener(final ItemModificationListener listener) {
+        itemModificationListener = listener;
+        if (listener != null && trackingProperties == null) {
+            trackingProperties = new HashMap<Object, ModificationTrackingProperty<?>>();
+            for (final Object propertyId : getItemPropertyIds()) {
+                getItemProperty(propertyId);
+            }
+        }
+    }
+
+    /**
+     * Gets property of the item. Once modification listener has been set the
+     * property is returned wrapped so that value changes made through it are
+     * reported to the listener.
+     *
+     * @param id the property ID
+     * @return the property or null if item does not have the property.
+     */
+    @Override
+    public Property getItemProperty(final Object id) {
+        final Property property = super.getItemProperty(id);
+        if (trackingProperties != null) {
+            return ModificationTrackingProperty.wrap(trackingProperties, id, property, this, modificationRelay);
+        }
+        return property;
+    }
 }
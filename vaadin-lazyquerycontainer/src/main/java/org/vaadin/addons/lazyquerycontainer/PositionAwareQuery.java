@@ -0,0 +1,41 @@
+/**
+ * Copyright 2010 Tommi S.E. Laukkanen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.lazyquerycontainer;
+
+/**
+ * Query which can resolve position of an item from its ID without loading
+ * the items preceding it.
+ *
+ * @author Tommi S.E. Laukkanen
+ */
+public interface PositionAwareQuery extends Query {
+    /**
+     * Index returned when position of the item could not be resolved and the
+     * caller has to search for it.
+     */
+    int UNKNOWN_INDEX = -2;
+
+    /**
+     * Gets index of the item with given ID among the items of this query.
+     * The index may be approximate if the sort order is not unique so
+     * callers should verify the item at the returned index.
+     *
+     * @param itemId the item ID
+     * @return the index, -1 if query does not contain the item or
+     *         UNKNOWN_INDEX if position could not be resolved.
+     */
+    int indexOf(Object itemId);
+}
@@ -0,0 +1,36 @@
+/**
+ * Copyright 2010 Tommi S.E. Laukkanen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.lazyquerycontainer;
+
+import java.io.Serializable;
+
+/**
+ * Interface for deciding how many batches are prefetched in the scroll
+ * direction after a batch has been served. Policies may be shared between
+ * views and should not hold per view state.
+ *
+ * @author Tommi S.E. Laukkanen
+ */
+public interface PrefetchPolicy extends Serializable {
+    /**
+     * Gets the number of batches to prefetch in the scroll direction.
+     *
+     * @param direction The scroll direction, 1 for down and -1 for up.
+     * @param batchesPerSecond The scroll velocity as batches per second.
+     * @return the number of batches to prefetch or 0 to skip prefetch.
+     */
+    int getPrefetchDepth(int direction, double batchesPerSecond);
+}
@@ -0,0 +1,178 @@
+/**
+ * Copyright 2010 Tommi S.E. Laukkanen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.lazyquerycontainer;
+
+import com.vaadin.data.Item;
+import com.vaadin.data.Property;
+import com.vaadin.data.util.LazyNestedMethodProperty;
+import com.vaadin.data.util.PropertysetItem;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Lightweight item constructed by EntityQuery from projection query row.
+ * Holds only the values of the declared properties and the entity ID. The
+ * entity itself is loaded on demand when it is needed for saving
+ * modifications or by LazyEntityContainer.getEntity.
+ *
+ * @author Tommi S.E. Laukkanen
+ */
+public final class ProjectionItem extends PropertysetItem implements ModificationTrackingItem {
+    /**
+     * Java serialization version UID.
+     */
+    private static final long serialVersionUID = 1L;
+    /**
+     * The query used to load the entity.
+     */
+    private final EntityQuery<?> query;
+    /**
+     * The entity ID.
+     */
+    private final Object entityId;
+    /**
+     * Values of projected properties as they were loaded.
+     */
+    private final Map<Object, Object> projectedValues = new HashMap<Object, Object>();
+    /**
+     * The entity or null if not loaded yet.
+     */
+    private Object entity;
+    /**
+     * Listener notified of property value changes or null.
+     */
+    private ItemModificationListener itemModificationListener;
+    /**
+     * Relay notified by the properties handed out while modification tracking is on.
+     */
+    private final ItemModificationListener modificationRelay = new ItemModificationListener() {
+        @Override
+        public void itemModified(final Item item, final Property property) {
+            if (itemModificationListener != null) {
+                itemModificationListener.itemModified(item, property);
+            }
+        }
+    };
+    /**
+     * Tracking wrappers of the properties by property ID or null if modification tracking has not been enabled.
+     */
+    private Map<Object, ModificationTrackingProperty<?>> trackingProperties;
+
+    /**
+     * Constructor which sets the query and entity ID.
+     *
+     * @param query the query used to load the entity
+     * @param entityId the entity ID
+     */
+    ProjectionItem(final EntityQuery<?> query, final Object entityId) {
+        this.query = query;
+        this.entityId = entityId;
+    }
+
+    /**
+     * @return the entity ID.
+     */
+    public Object getEntityId() {
+        return entityId;
+    }
+
+    /**
+     * Adds property which value was loaded with projection query.
+     *
+     * @param propertyId the property ID
+     * @param property the property
+     */
+    void addProjectedProperty(final Object propertyId, final Property<?> property) {
+        addItemProperty(propertyId, property);
+        projectedValues.put(propertyId, property.getValue());
+    }
+
+    /**
+     * Checks whether value of projected property has been changed after loading.
+     *
+     * @param propertyId the property ID
+     * @return true if property is projected and its value has been changed.
+     */
+    public boolean isModified(final Object propertyId) {
+        if (!projectedValues.containsKey(propertyId)) {
+            return false;
+        }
+        final Object projectedValue = projectedValues.get(propertyId);
+        final Object value = getItemProperty(propertyId).getValue();
+        return projectedValue == null ? value != null : !projectedValue.equals(value);
+    }
+
+    /**
+     * Gets the entity of this item. Entity is loaded on first call and
+     * modified projected property values are applied to it.
+     *
+     * @return the entity
+     * @throws IllegalStateException if entity does not exist anymore.
+     */
+    public Object getEntity() {
+        if (entity == null) {
+            entity = query.findEntity(entityId);
+            if (entity == null) {
+                throw new IllegalStateException("Entity not found with ID: " + entityId);
+            }
+        }
+        for (final Object propertyId : projectedValues.keySet()) {
+            if (isModified(propertyId)) {
+                new LazyNestedMethodProperty<Object>(entity, (String) propertyId).setValue(
+                        getItemProperty(propertyId).getValue());
+            }
+        }
+        return entity;
+    }
+
+    /**
+     * Sets the listener notified of property value changes made through the
+     * properties of this item. No listeners are registered to the properties.
+     * Instead each property is wrapped once when the listener is first set
+     * and the wrappers are handed out from then on.
+     *
+     * @param listener The listener or null to stop notifications.
+     */
+    @Override
+    public void setItemModificationListener(final ItemModificationListener listener) {
+        itemModificationListener = listener;
+        if (listener != null && trackingProperties == null) {
+            trackingProperties = new HashMap<Object, ModificationTrackingProperty<?>>();
+            for (final Object propertyId : getItemPropertyIds()) {
+                getItemProperty(propertyId);
+            }
+        }
+    }
+
+    /**
+     * Gets property of the item. Once modification listener has been set the
+     * property is returned wrapped so that value changes made through it are
+     * reported to the listener.
+     *
+     * @param id the property ID
+     * @return the property or null if item does not have the property.
+     */
+    @Override
+    public Property getItemProperty(final Object id) {
+        final Property property = super.getItemProperty(id);
+        if (trackingProperties != null) {
+            return ModificationTrackingProperty.wrap(trackingProperties, id, property, this, modificationRelay);
+        }
+        return property;
+    }
+
+}
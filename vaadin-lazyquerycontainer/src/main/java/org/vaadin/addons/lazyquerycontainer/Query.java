@@ -26,9 +26,12 @@ import java.util.List;
  */
 public interface Query {
     /**
-     * Gets number of items available through this query.
+     * Gets number of items available through this query. Queries which can
+     * not count their items cheaply may return -1 in which case the view
+     * estimates the size and grows it as full batches are loaded until a
+     * short batch reveals the end.
      *
-     * @return Number of items.
+     * @return Number of items or -1 if not known.
      */
     int size();
 
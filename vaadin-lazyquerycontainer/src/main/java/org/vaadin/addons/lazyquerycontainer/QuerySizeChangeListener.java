@@ -0,0 +1,34 @@
+/**
+ * Copyright 2010 Tommi S.E. Laukkanen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.lazyquerycontainer;
+
+import java.io.Serializable;
+
+/**
+ * Interface for listening query size changes of QueryView. Query size
+ * changes without refresh when query does not know its size in advance and
+ * the view grows the size as batches are loaded.
+ *
+ * @author Tommi S.E. Laukkanen
+ */
+public interface QuerySizeChangeListener extends Serializable {
+    /**
+     * Invoked when query size has changed.
+     *
+     * @param querySize the new query size.
+     */
+    void querySizeChanged(int querySize);
+}
@@ -15,6 +15,7 @@
  */
 package org.vaadin.addons.lazyquerycontainer.test;
 
+import com.vaadin.data.Item;
 import com.vaadin.data.Property;
 import com.vaadin.data.util.ObjectProperty;
 import com.vaadin.data.util.PropertysetItem;
@@ -23,6 +24,12 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.vaadin.addons.lazyquerycontainer.CompositeItem;
+import org.vaadin.addons.lazyquerycontainer.ItemModificationListener;
+import org.vaadin.addons.lazyquerycontainer.NestingBeanItem;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * Unit tests for CompositeItem.
@@ -126,4 +133,65 @@ public class CompositeItemTest {
         Assert.assertNull("Does asking the property return null after remove", testItem.getItemProperty(TEST_PROPERTY_ID));
     }
 
+    /**
+     * Test method for {@link org.vaadin.addons.lazyquerycontainer.CompositeItem#setItemModificationListener(org.vaadin.addons.lazyquerycontainer.ItemModificationListener)}.
+     */
+    @Test
+    public void testItemModificationListener() {
+        final CompositeItem compositeItem = new CompositeItem();
+        final NestingBeanItem<MockBean> beanItem = new NestingBeanItem<MockBean>(new MockBean(), 0,
+                Collections.<Object>emptyList());
+        compositeItem.addItem("bean", beanItem);
+        final List<Item> modifiedItems = new ArrayList<Item>();
+        compositeItem.setItemModificationListener(new ItemModificationListener() {
+            @Override
+            public void itemModified(final Item item, final Property property) {
+                modifiedItems.add(item);
+            }
+        });
+        final ObjectProperty<String> statusProperty = new ObjectProperty<String>("new");
+        compositeItem.addItemProperty("status", statusProperty);
+
+        compositeItem.getItemProperty("name").setValue("modified");
+        compositeItem.getItemProperty("status").setValue("modified");
+        Assert.assertEquals("Are both modifications reported?", 2, modifiedItems.size());
+        Assert.assertSame("Is composite item reported as modified?", compositeItem, modifiedItems.get(0));
+        Assert.assertTrue("Are no listeners registered to the property?",
+                statusProperty.getListeners(Property.ValueChangeEvent.class).isEmpty());
+
+        compositeItem.setItemModificationListener(null);
+        compositeItem.getItemProperty("name").setValue("again");
+        Assert.assertEquals("Are modifications not reported after listener is cleared?", 2, modifiedItems.size());
+    }
+
+    /**
+     * Test method for {@link org.vaadin.addons.lazyquerycontainer.CompositeItem#getItemProperty(java.lang.Object)}
+     * while modifications are tracked.
+     */
+    @Test
+    public void testItemModificationListenerPropertyReuse() {
+        final List<Item> modifiedItems = new ArrayList<Item>();
+        final ItemModificationListener listener = new ItemModificationListener() {
+            @Override
+            public void itemModified(final Item item, final Property property) {
+                modifiedItems.add(item);
+            }
+        };
+        final ObjectProperty<String> property = new ObjectProperty<String>("original");
+        testItem.addItemProperty(TEST_PROPERTY_ID_2, property);
+        testItem.setItemModificationListener(listener);
+        final Property trackedProperty = testItem.getItemProperty(TEST_PROPERTY_ID_2);
+        Assert.assertSame("Is the same wrapper returned on each access?", trackedProperty,
+                testItem.getItemProperty(TEST_PROPERTY_ID_2));
+
+        trackedProperty.setValue("original");
+        Assert.assertEquals("Is setting unchanged value not reported?", 0, modifiedItems.size());
+
+        testItem.setItemModificationListener(null);
+        testItem.setItemModificationListener(listener);
+        trackedProperty.setValue("modified");
+        Assert.assertEquals("Is change through earlier obtained property reported?", 1, modifiedItems.size());
+        Assert.assertEquals("Is value set to the underlying property?", "modified", property.getValue());
+    }
+
 }
@@ -0,0 +1,49 @@
+/**
+ * Copyright 2010 Tommi S.E. Laukkanen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.lazyquerycontainer.test;
+
+import com.vaadin.data.Item;
+import com.vaadin.data.util.ObjectProperty;
+import com.vaadin.data.util.PropertysetItem;
+import junit.framework.TestCase;
+import org.vaadin.addons.lazyquerycontainer.CompositeItem;
+import org.vaadin.addons.lazyquerycontainer.DefaultItemWeigher;
+
+/**
+ * JUnit test for testing DefaultItemWeigher implementation.
+ *
+ * @author Tommi S.E. Laukkanen
+ */
+public class DefaultItemWeigherTest extends TestCase {
+
+    public void testWeigh() {
+        final DefaultItemWeigher weigher = new DefaultItemWeigher();
+
+        final Item smallItem = new PropertysetItem();
+        smallItem.addItemProperty("id", new ObjectProperty<Integer>(1));
+        final Item largeItem = new PropertysetItem();
+        largeItem.addItemProperty("id", new ObjectProperty<Integer>(1));
+        largeItem.addItemProperty("text", new ObjectProperty<String>(new String(new char[50000])));
+
+        assertTrue(weigher.weigh(smallItem) < 1000);
+        assertTrue(weigher.weigh(largeItem) > 100000);
+
+        final CompositeItem compositeItem = new CompositeItem();
+        compositeItem.addItem("large", largeItem);
+        assertTrue(weigher.weigh(compositeItem) > weigher.weigh(largeItem));
+    }
+
+}
@@ -0,0 +1,38 @@
+/**
+ * Copyright 2010 Tommi S.E. Laukkanen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.lazyquerycontainer.test;
+
+import junit.framework.TestCase;
+import org.vaadin.addons.lazyquerycontainer.DefaultPrefetchPolicy;
+
+/**
+ * JUnit test for testing DefaultPrefetchPolicy implementation.
+ *
+ * @author Tommi S.E. Laukkanen
+ */
+public class DefaultPrefetchPolicyTest extends TestCase {
+
+    public void testPrefetchDepth() {
+        final DefaultPrefetchPolicy policy = new DefaultPrefetchPolicy(3, 1000, 20);
+        assertEquals(1, policy.getPrefetchDepth(1, 0));
+        assertEquals(1, policy.getPrefetchDepth(-1, 0.5));
+        assertEquals(2, policy.getPrefetchDepth(1, 1.5));
+        assertEquals(3, policy.getPrefetchDepth(1, 10));
+        assertEquals(3, policy.getPrefetchDepth(-1, 20));
+        assertEquals(0, policy.getPrefetchDepth(1, 21));
+    }
+
+}
@@ -16,19 +16,38 @@
 package org.vaadin.addons.lazyquerycontainer.test;
 
 import com.vaadin.data.Item;
+import com.vaadin.data.Property;
 import com.vaadin.data.util.filter.And;
 import com.vaadin.data.util.filter.Compare;
 import junit.framework.Assert;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.vaadin.addons.lazyquerycontainer.CommitListener;
+import org.vaadin.addons.lazyquerycontainer.EntityQuery;
+import org.vaadin.addons.lazyquerycontainer.EntityQueryDefinition;
 import org.vaadin.addons.lazyquerycontainer.LazyEntityContainer;
 import org.vaadin.addons.lazyquerycontainer.LazyQueryView;
+import org.vaadin.addons.lazyquerycontainer.ModificationTrackingItem;
+import org.vaadin.addons.lazyquerycontainer.ProjectionItem;
 import org.vaadin.addons.lazyquerycontainer.QueryItemStatus;
 
 import javax.persistence.EntityManager;
 import javax.persistence.EntityManagerFactory;
 import javax.persistence.Persistence;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.Executor;
 
 /**
  * Unit test for LazyEntityContainer.
@@ -49,6 +68,14 @@ public class EntityContainerDetachedEntitiesTest {
      * Batch size for entity container.
      */
     private static final int ENTITY_CONTAINER_BATCH_SIZE = 100;
+    /**
+     * Item count for keyset paging test.
+     */
+    private static final int KEYSET_ITEM_COUNT = 450;
+    /**
+     * Distinct task name count for keyset paging test.
+     */
+    private static final int KEYSET_DISTINCT_NAME_COUNT = 7;
     /**
      * The JPA EntityManagerFactory.
      */
@@ -242,6 +269,650 @@ public class EntityContainerDetachedEntitiesTest {
         }
     }
 
+    /**
+     * Test keyset paging with duplicate sort key values.
+     */
+    @Test
+    public final void testKeysetPaging() {
+        final LazyEntityContainer<Task> entityContainer = new LazyEntityContainer<Task>(
+                entityManager, Task.class,
+                ENTITY_CONTAINER_BATCH_SIZE, null, true, true, true);
+        ((EntityQueryDefinition) entityContainer.getQueryView().getQueryDefinition()).setKeysetPaging(true);
+        entityContainer.getQueryView().getQueryDefinition().setDefaultSortState(
+                new String[]{"priority"}, new boolean[]{false});
+
+        for (int i = 0; i < KEYSET_ITEM_COUNT; i++) {
+            final Task task = entityContainer.addEntity();
+            task.setPriority(i % KEYSET_DISTINCT_NAME_COUNT);
+        }
+        entityContainer.commit();
+
+        Assert.assertEquals("Verify container size", KEYSET_ITEM_COUNT, entityContainer.size());
+        final Set<Long> taskIds = new HashSet<Long>();
+        int previousPriority = Integer.MAX_VALUE;
+        for (int i = 0; i < KEYSET_ITEM_COUNT; i++) {
+            final Task task = entityContainer.getEntity(i);
+            Assert.assertTrue("Verify each task is loaded once", taskIds.add(task.getTaskId()));
+            Assert.assertTrue("Verify descending order", previousPriority >= task.getPriority());
+            previousPriority = task.getPriority();
+        }
+    }
+
+    /**
+     * Test that keyset paging does not skip rows with null sort key values.
+     */
+    @Test
+    public final void testKeysetPagingWithNullSortKeys() {
+        final LazyEntityContainer<Task> entityContainer = new LazyEntityContainer<Task>(
+                entityManager, Task.class,
+                ENTITY_CONTAINER_BATCH_SIZE, null, true, true, true);
+        ((EntityQueryDefinition) entityContainer.getQueryView().getQueryDefinition()).setKeysetPaging(true);
+
+        for (int i = 0; i < KEYSET_ITEM_COUNT; i++) {
+            final Task task = entityContainer.addEntity();
+            task.setName(i % 3 == 0 ? null : "task-" + (i % KEYSET_DISTINCT_NAME_COUNT));
+        }
+        entityContainer.commit();
+
+        for (final boolean ascending : new boolean[]{true, false}) {
+            entityContainer.sort(new Object[]{"name"}, new boolean[]{ascending});
+            Assert.assertEquals("Verify container size", KEYSET_ITEM_COUNT, entityContainer.size());
+            final Set<Long> taskIds = new HashSet<Long>();
+            int nullNameCount = 0;
+            for (int i = 0; i < KEYSET_ITEM_COUNT; i++) {
+                final Task task = entityContainer.getEntity(i);
+                Assert.assertTrue("Verify each task is loaded once", taskIds.add(task.getTaskId()));
+                if (task.getName() == null) {
+                    nullNameCount++;
+                }
+            }
+            Assert.assertEquals("Verify tasks without name are loaded", KEYSET_ITEM_COUNT / 3, nullNameCount);
+        }
+    }
+
+    /**
+     * Test that fetch joins of nested properties keep tasks without author
+     * and page correctly over batch boundaries.
+     */
+    @Test
+    public final void testFetchJoinsWithNullAssociation() {
+        final LazyEntityContainer<Task> entityContainer = new LazyEntityContainer<Task>(
+                entityManager, Task.class,
+                ENTITY_CONTAINER_BATCH_SIZE, null, true, true, true);
+        final EntityQueryDefinition queryDefinition =
+                (EntityQueryDefinition) entityContainer.getQueryView().getQueryDefinition();
+        Assert.assertFalse("Verify fetch joins are off by default", queryDefinition.isFetchJoins());
+        queryDefinition.setFetchJoins(true);
+        entityContainer.getQueryView().getQueryDefinition().setDefaultSortState(
+                new String[]{"taskId"}, new boolean[]{true});
+        entityContainer.addContainerProperty("name", String.class, "");
+        entityContainer.addContainerProperty("author.name", String.class, "");
+        entityContainer.addContainerProperty("author.company.name", String.class, "");
+
+        final Company company = new Company();
+        company.setName("test-company");
+        for (int i = 0; i < KEYSET_ITEM_COUNT; i++) {
+            final Task task = entityContainer.addEntity();
+            task.setName("task-" + i);
+            if (i % 3 != 0) {
+                final Author author = new Author();
+                author.setName("author-" + i);
+                if (i % 2 == 0) {
+                    author.setCompany(company);
+                }
+                task.setAuthor(author);
+            }
+        }
+        entityContainer.commit();
+        entityContainer.refresh();
+
+        Assert.assertEquals("Verify tasks without author are counted", KEYSET_ITEM_COUNT, entityContainer.size());
+        for (int i = 0; i < KEYSET_ITEM_COUNT; i++) {
+            final Item item = entityContainer.getItem(entityContainer.getIdByIndex(i));
+            Assert.assertEquals("Verify task order", "task-" + i, item.getItemProperty("name").getValue());
+            Assert.assertEquals("Verify author name", i % 3 != 0 ? "author-" + i : null,
+                    item.getItemProperty("author.name").getValue());
+            Assert.assertEquals("Verify company name", i % 3 != 0 && i % 2 == 0 ? "test-company" : null,
+                    item.getItemProperty("author.company.name").getValue());
+        }
+    }
+
+    /**
+     * Test projection items with nested properties and modification.
+     */
+    @Test
+    public final void testProjectionItems() {
+        final LazyEntityContainer<Task> entityContainer = new LazyEntityContainer<Task>(
+                entityManager, Task.class,
+                ENTITY_CONTAINER_BATCH_SIZE, null, true, true, true);
+        ((EntityQueryDefinition) entityContainer.getQueryView().getQueryDefinition()).setProjectionItems(true);
+        entityContainer.getQueryView().getQueryDefinition().setDefaultSortState(
+                new String[]{"name"}, new boolean[]{true});
+        entityContainer.addContainerProperty("name", String.class, "");
+        entityContainer.addContainerProperty("author.company.name", String.class, "");
+        entityContainer.addContainerProperty("description", String.class, "none");
+
+        final Company company = new Company();
+        company.setName("test-company");
+        final Author author = new Author();
+        author.setName("test-author");
+        author.setCompany(company);
+
+        final Task taskAlpha = entityContainer.addEntity();
+        taskAlpha.setName("alpha");
+        taskAlpha.setAuthor(author);
+        final Task taskBeta = entityContainer.addEntity();
+        taskBeta.setName("beta");
+        entityContainer.commit();
+
+        Assert.assertEquals("Verify task without author is included", 2, entityContainer.size());
+        final Item alphaItem = entityContainer.getItem(entityContainer.getIdByIndex(0));
+        Assert.assertTrue("Verify projection item", alphaItem instanceof ProjectionItem);
+        Assert.assertTrue("Verify projection item tracks modifications", alphaItem instanceof ModificationTrackingItem);
+        Assert.assertEquals("alpha", alphaItem.getItemProperty("name").getValue());
+        Assert.assertEquals("test-company", alphaItem.getItemProperty("author.company.name").getValue());
+        Assert.assertEquals("none", alphaItem.getItemProperty("description").getValue());
+        final Item betaItem = entityContainer.getItem(entityContainer.getIdByIndex(1));
+        Assert.assertNull(betaItem.getItemProperty("author.company.name").getValue());
+
+        final Property betaName = betaItem.getItemProperty("name");
+        betaName.setValue("beta");
+        Assert.assertFalse("Verify unchanged value is not a modification", entityContainer.isModified());
+        betaName.setValue("gamma");
+        Assert.assertTrue("Verify modification is tracked", entityContainer.isModified());
+        entityContainer.commit();
+
+        Assert.assertEquals("Verify modification was saved", "gamma",
+                entityContainer.getEntity(1).getName());
+        Assert.assertEquals("Verify entity is loaded by ID", taskBeta.getTaskId(),
+                entityContainer.getEntity(1).getTaskId());
+    }
+
+    /**
+     * Test removal of filtered items with removed item count.
+     */
+    @Test
+    public final void testRemoveAllMatchingItems() {
+        final LazyEntityContainer<Task> entityContainer = new LazyEntityContainer<Task>(
+                entityManager, Task.class,
+                ENTITY_CONTAINER_BATCH_SIZE, null, true, true, true);
+        entityContainer.getQueryView().getQueryDefinition().setDefaultSortState(
+                new String[]{"name"}, new boolean[]{true});
+
+        for (int i = 0; i < 10; i++) {
+            final Task task = entityContainer.addEntity();
+            task.setName("task-" + i);
+            task.setAssignee(i % 2 == 0 ? "even" : "odd");
+        }
+        entityContainer.commit();
+
+        entityContainer.addContainerFilter(new Compare.Equal("assignee", "even"));
+        Assert.assertEquals("Verify removed item count", 5, entityContainer.removeAllMatchingItems());
+        Assert.assertEquals("Verify filtered container is empty", 0, entityContainer.size());
+
+        entityContainer.removeAllContainerFilters();
+        Assert.assertEquals("Verify unfiltered items remain", 5, entityContainer.size());
+    }
+
+    /**
+     * Test that bulk delete does not leave removed entities managed in
+     * the shared entity manager.
+     */
+    @Test
+    public final void testRemoveAllMatchingItemsDetachesEntities() {
+        final LazyEntityContainer<Task> entityContainer = new LazyEntityContainer<Task>(
+                entityManager, Task.class,
+                ENTITY_CONTAINER_BATCH_SIZE, null, true, true, true);
+        entityContainer.getQueryView().getQueryDefinition().setDefaultSortState(
+                new String[]{"name"}, new boolean[]{true});
+
+        final Task task = entityContainer.addEntity();
+        task.setName("task");
+        task.setAssignee("even");
+        entityContainer.commit();
+
+        final Task managedTask = entityManager.find(Task.class, task.getTaskId());
+        Assert.assertTrue("Verify task is managed", entityManager.contains(managedTask));
+
+        entityContainer.addContainerFilter(new Compare.Equal("assignee", "even"));
+        Assert.assertEquals("Verify removed item count", 1, entityContainer.removeAllMatchingItems());
+        Assert.assertFalse("Verify removed task is not managed", entityManager.contains(managedTask));
+        Assert.assertNull("Verify removed task is not found", entityManager.find(Task.class, task.getTaskId()));
+    }
+
+    /**
+     * Test chunked commit progress reporting.
+     */
+    @Test
+    public final void testChunkedCommit() {
+        final LazyEntityContainer<Task> entityContainer = new LazyEntityContainer<Task>(
+                entityManager, Task.class,
+                ENTITY_CONTAINER_BATCH_SIZE, null, true, true, true);
+        final EntityQueryDefinition queryDefinition =
+                (EntityQueryDefinition) entityContainer.getQueryView().getQueryDefinition();
+        final List<Integer> progress = new ArrayList<Integer>();
+        queryDefinition.setCommitChunkSize(3);
+        queryDefinition.setCommitListener(new CommitListener() {
+            @Override
+            public void commitProgress(final int savedCount, final int totalCount) {
+                Assert.assertEquals("Verify total count", 10, totalCount);
+                progress.add(savedCount);
+            }
+        });
+
+        for (int i = 0; i < 10; i++) {
+            entityContainer.addEntity().setName("task-" + i);
+        }
+        entityContainer.commit();
+
+        Assert.assertEquals("Verify progress", Arrays.asList(3, 6, 9, 10), progress);
+        Assert.assertEquals("Verify container size", 10, entityContainer.size());
+    }
+
+    /**
+     * Test entity manager per operation mode.
+     */
+    @Test
+    public final void testEntityManagerFactory() {
+        final LazyEntityContainer<Task> entityContainer = new LazyEntityContainer<Task>(
+                entityManagerFactory, Task.class, ENTITY_CONTAINER_BATCH_SIZE, null, true, true);
+        entityContainer.getQueryView().getQueryDefinition().setDefaultSortState(
+                new String[]{"name"}, new boolean[]{true});
+
+        entityContainer.addEntity().setName("alpha");
+        entityContainer.addEntity().setName("beta");
+        entityContainer.commit();
+
+        Assert.assertEquals("Verify container size", 2, entityContainer.size());
+        entityContainer.getItem(entityContainer.getIdByIndex(0)).getItemProperty("name").setValue("gamma");
+        entityContainer.commit();
+
+        Assert.assertEquals("Verify modified entity was merged", "beta", entityContainer.getEntity(0).getName());
+        Assert.assertEquals("Verify modified entity was merged", "gamma", entityContainer.getEntity(1).getName());
+    }
+
+    /**
+     * Test that first batch is handed to single loader when several threads
+     * load the first items while the first batch is still pending.
+     */
+    @Test
+    public final void testFirstBatchTakenOnce() throws Exception {
+        entityManager.getTransaction().begin();
+        for (int i = 0; i < 3; i++) {
+            final Task task = new Task();
+            task.setName("task-" + i);
+            entityManager.persist(task);
+        }
+        entityManager.getTransaction().commit();
+
+        final int loaderCount = 4;
+        for (int round = 0; round < 10; round++) {
+            final CountDownLatch release = new CountDownLatch(1);
+            final EntityQueryDefinition definition = new EntityQueryDefinition(true, true, false, Task.class,
+                    ENTITY_CONTAINER_BATCH_SIZE, null);
+            definition.addProperty("name", String.class, "", true, true);
+            definition.setDefaultSortState(new String[]{"name"}, new boolean[]{true});
+            definition.setFirstBatchExecutor(new Executor() {
+                @Override
+                public void execute(final Runnable command) {
+                    new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                release.await();
+                            } catch (final InterruptedException e) {
+                                return;
+                            }
+                            command.run();
+                        }
+                    }).start();
+                }
+            });
+            final EntityQuery<Task> query = new EntityQuery<Task>(definition, entityManagerFactory);
+            Assert.assertEquals("Verify query size", 3, query.size());
+
+            final CyclicBarrier start = new CyclicBarrier(loaderCount);
+            final List<List<Item>> results = Collections.synchronizedList(new ArrayList<List<Item>>());
+            final List<Thread> loaders = new ArrayList<Thread>();
+            for (int i = 0; i < loaderCount; i++) {
+                final Thread loader = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            start.await();
+                        } catch (final Exception e) {
+                            return;
+                        }
+                        results.add(query.loadItems(0, 3));
+                    }
+                });
+                loaders.add(loader);
+                loader.start();
+            }
+            Thread.sleep(50);
+            release.countDown();
+            for (final Thread loader : loaders) {
+                loader.join();
+            }
+
+            Assert.assertEquals("Verify all loaders completed", loaderCount, results.size());
+            for (int i = 0; i < loaderCount; i++) {
+                Assert.assertEquals("task-0", results.get(i).get(0).getItemProperty("name").getValue());
+                Assert.assertEquals("task-2", results.get(i).get(2).getItemProperty("name").getValue());
+                for (int j = i + 1; j < loaderCount; j++) {
+                    Assert.assertNotSame("Verify first batch items are not shared between loaders",
+                            results.get(i).get(0), results.get(j).get(0));
+                }
+            }
+        }
+    }
+
+    /**
+     * Test that nested properties are loaded in entity manager per operation
+     * mode even if fetch joins are disabled.
+     */
+    @Test
+    public final void testEntityManagerFactoryNestedProperties() {
+        final LazyEntityContainer<Task> entityContainer = new LazyEntityContainer<Task>(
+                entityManagerFactory, Task.class, ENTITY_CONTAINER_BATCH_SIZE, "taskId", true, true);
+        ((EntityQueryDefinition) entityContainer.getQueryView().getQueryDefinition()).setFetchJoins(false);
+        entityContainer.getQueryView().getQueryDefinition().setDefaultSortState(
+                new String[]{"name"}, new boolean[]{true});
+        entityContainer.addContainerProperty("name", String.class, "");
+        entityContainer.addContainerProperty("author.company.name", String.class, "");
+
+        final Company company = new Company();
+        company.setName("test-company");
+        final Author author = new Author();
+        author.setName("test-author");
+        author.setCompany(company);
+        final Task taskAlpha = entityContainer.addEntity();
+        taskAlpha.setName("alpha");
+        taskAlpha.setAuthor(author);
+        entityContainer.addEntity().setName("beta");
+        entityContainer.commit();
+
+        Assert.assertEquals("Verify container size", 2, entityContainer.size());
+        final Object alphaId = entityContainer.getIdByIndex(0);
+        Assert.assertEquals("Verify nested property of loaded batch", "test-company",
+                entityContainer.getItem(alphaId).getItemProperty("author.company.name").getValue());
+        Assert.assertNull("Verify nested property of task without author",
+                entityContainer.getItem(entityContainer.getIdByIndex(1))
+                        .getItemProperty("author.company.name").getValue());
+
+        entityContainer.refresh();
+        Assert.assertEquals("Verify nested property of item loaded by ID", "test-company",
+                entityContainer.getItem(alphaId).getItemProperty("author.company.name").getValue());
+    }
+
+    /**
+     * Test that entity managers opened per operation join the transaction
+     * when container manages transactions.
+     */
+    @Test
+    public final void testEntityManagerFactoryContainerManagedTransactions() {
+        final int[] joinCount = new int[1];
+        final LazyEntityContainer<Task> entityContainer = new LazyEntityContainer<Task>(
+                createTransactionJoiningFactory(joinCount), Task.class,
+                ENTITY_CONTAINER_BATCH_SIZE, "taskId", false, true);
+        entityContainer.getQueryView().getQueryDefinition().setDefaultSortState(
+                new String[]{"name"}, new boolean[]{true});
+        entityContainer.addContainerProperty("name", String.class, "");
+
+        entityContainer.addEntity().setName("alpha");
+        entityContainer.addEntity().setName("beta");
+        entityContainer.commit();
+        Assert.assertEquals("Verify save joined transaction", 1, joinCount[0]);
+        Assert.assertEquals("Verify tasks were saved", 2L, entityManager
+                .createQuery("select count(t) from Task t").getSingleResult());
+
+        entityContainer.addContainerFilter(new Compare.Equal("name", "alpha"));
+        Assert.assertEquals("Verify removed item count", 1, entityContainer.removeAllMatchingItems());
+        Assert.assertEquals("Verify bulk delete joined transaction", 2, joinCount[0]);
+        Assert.assertEquals("Verify task was removed", 1L, entityManager
+                .createQuery("select count(t) from Task t").getSingleResult());
+    }
+
+    /**
+     * Creates entity manager factory simulating container managed transactions.
+     * Entity managers begin resource local transaction when joined to
+     * transaction and commit it when closed.
+     *
+     * @param joinCount array which first element is incremented on each join
+     * @return the entity manager factory
+     */
+    private static EntityManagerFactory createTransactionJoiningFactory(final int[] joinCount) {
+        return (EntityManagerFactory) Proxy.newProxyInstance(
+                EntityManagerFactory.class.getClassLoader(), new Class<?>[]{EntityManagerFactory.class},
+                new InvocationHandler() {
+                    @Override
+                    public Object invoke(final Object proxy, final Method method, final Object[] args)
+                            throws Throwable {
+                        if (!"createEntityManager".equals(method.getName())) {
+                            return invokeDelegate(entityManagerFactory, method, args);
+                        }
+                        final EntityManager delegate = (EntityManager) invokeDelegate(
+                                entityManagerFactory, method, args);
+                        return Proxy.newProxyInstance(
+                                EntityManager.class.getClassLoader(), new Class<?>[]{EntityManager.class},
+                                new InvocationHandler() {
+                                    @Override
+                                    public Object invoke(final Object proxy, final Method method,
+                                                         final Object[] args) throws Throwable {
+                                        if ("joinTransaction".equals(method.getName())) {
+                                            joinCount[0]++;
+                                            delegate.getTransaction().begin();
+                                            return null;
+                                        }
+                                        if ("close".equals(method.getName())
+                                                && delegate.getTransaction().isActive()) {
+                                            delegate.getTransaction().commit();
+                                        }
+                                        return invokeDelegate(delegate, method, args);
+                                    }
+                                });
+                    }
+                });
+    }
+
+    /**
+     * Invokes method of delegate and unwraps exception thrown by the method.
+     *
+     * @param delegate the delegate
+     * @param method the method
+     * @param args the arguments
+     * @return the return value
+     * @throws Throwable if method throws exception
+     */
+    private static Object invokeDelegate(final Object delegate, final Method method, final Object[] args)
+            throws Throwable {
+        try {
+            return method.invoke(delegate, args);
+        } catch (final InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Test loading of first batch in parallel with count query.
+     */
+    @Test
+    public final void testFirstBatchExecutor() {
+        final LazyEntityContainer<Task> entityContainer = new LazyEntityContainer<Task>(
+                entityManagerFactory, Task.class, ENTITY_CONTAINER_BATCH_SIZE, null, true, true);
+        entityContainer.getQueryView().getQueryDefinition().setDefaultSortState(
+                new String[]{"name"}, new boolean[]{true});
+        for (int i = 0; i < 3; i++) {
+            entityContainer.addEntity().setName("task-" + i);
+        }
+        entityContainer.commit();
+
+        final List<Runnable> scheduled = new ArrayList<Runnable>();
+        ((EntityQueryDefinition) entityContainer.getQueryView().getQueryDefinition()).setFirstBatchExecutor(
+                new Executor() {
+                    @Override
+                    public void execute(final Runnable command) {
+                        scheduled.add(command);
+                        new Thread(command).start();
+                    }
+                });
+        entityContainer.refresh();
+
+        Assert.assertEquals("Verify container size", 3, entityContainer.size());
+        Assert.assertEquals("Verify first batch was scheduled", 1, scheduled.size());
+        Assert.assertEquals("task-0", entityContainer.getEntity(0).getName());
+        Assert.assertEquals("task-2", entityContainer.getEntity(2).getName());
+    }
+
+    /**
+     * Test that query size is bounded by maximum query size.
+     */
+    @Test
+    public final void testMaxQuerySize() {
+        final LazyEntityContainer<Task> entityContainer = new LazyEntityContainer<Task>(
+                entityManager, Task.class,
+                ENTITY_CONTAINER_BATCH_SIZE, null, true, true, true);
+        for (int i = 0; i < 10; i++) {
+            entityContainer.addEntity().setName("task-" + i);
+        }
+        entityContainer.commit();
+
+        entityContainer.getQueryView().getQueryDefinition().setMaxQuerySize(5);
+        entityContainer.refresh();
+        Assert.assertEquals("Verify size is bounded", 5, entityContainer.size());
+
+        entityContainer.getQueryView().getQueryDefinition().setMaxQuerySize(20);
+        entityContainer.refresh();
+        Assert.assertEquals("Verify size below maximum is counted", 10, entityContainer.size());
+    }
+
+    /**
+     * Test that index of ID is resolved from query position.
+     */
+    @Test
+    public final void testIndexOfId() {
+        final LazyEntityContainer<Task> entityContainer = new LazyEntityContainer<Task>(
+                entityManager, Task.class,
+                ENTITY_CONTAINER_BATCH_SIZE, "taskId", true, true, true);
+        ((EntityQueryDefinition) entityContainer.getQueryView().getQueryDefinition()).setKeysetPaging(true);
+        entityContainer.getQueryView().getQueryDefinition().setDefaultSortState(
+                new String[]{"priority"}, new boolean[]{false});
+
+        for (int i = 0; i < KEYSET_ITEM_COUNT; i++) {
+            final Task task = entityContainer.addEntity();
+            task.setName("task-" + (i % KEYSET_DISTINCT_NAME_COUNT));
+            task.setPriority(i % KEYSET_DISTINCT_NAME_COUNT);
+        }
+        entityContainer.commit();
+
+        final List<Long> taskIds = new ArrayList<Long>();
+        for (int i = 0; i < KEYSET_ITEM_COUNT; i++) {
+            taskIds.add(entityContainer.getEntity(i).getTaskId());
+        }
+
+        entityContainer.refresh();
+        final int index = KEYSET_ITEM_COUNT - 1;
+        Assert.assertEquals("Verify index of last item", index, entityContainer.indexOfId(taskIds.get(index)));
+        Assert.assertEquals("Verify index of middle item", index / 2,
+                entityContainer.indexOfId(taskIds.get(index / 2)));
+        Assert.assertEquals("Verify next item", taskIds.get(index / 2 + 1),
+                entityContainer.nextItemId(taskIds.get(index / 2)));
+
+        entityContainer.addContainerFilter(new Compare.Equal("name", "task-0"));
+        Assert.assertEquals("Verify filtered out item is not found", -1,
+                entityContainer.indexOfId(taskIds.get(0)));
+    }
+
+    /**
+     * Test that index of ID is found when sort property can be null.
+     */
+    @Test
+    public final void testIndexOfIdWithNullSortKeys() {
+        final LazyEntityContainer<Task> entityContainer = new LazyEntityContainer<Task>(
+                entityManager, Task.class,
+                ENTITY_CONTAINER_BATCH_SIZE, "taskId", true, true, true);
+        entityContainer.getQueryView().getQueryDefinition().setDefaultSortState(
+                new String[]{"name"}, new boolean[]{true});
+
+        for (int i = 0; i < KEYSET_ITEM_COUNT; i++) {
+            entityContainer.addEntity().setName(i % 3 == 0 ? null : "task-" + (i % KEYSET_DISTINCT_NAME_COUNT));
+        }
+        entityContainer.commit();
+
+        final List<Long> taskIds = new ArrayList<Long>();
+        for (int i = 0; i < KEYSET_ITEM_COUNT; i++) {
+            taskIds.add(entityContainer.getEntity(i).getTaskId());
+        }
+
+        entityContainer.refresh();
+        for (final int index : new int[]{0, KEYSET_ITEM_COUNT / 2, KEYSET_ITEM_COUNT - 1}) {
+            Assert.assertEquals("Verify index of item", index, entityContainer.indexOfId(taskIds.get(index)));
+        }
+    }
+
+    /**
+     * Test that item IDs are loaded without items in ID only loading mode.
+     */
+    @Test
+    public final void testIdPageSize() {
+        final LazyEntityContainer<Task> entityContainer = new LazyEntityContainer<Task>(
+                entityManager, Task.class,
+                ENTITY_CONTAINER_BATCH_SIZE, "taskId", true, true, true);
+        entityContainer.getQueryView().getQueryDefinition().setDefaultSortState(
+                new String[]{"taskId"}, new boolean[]{true});
+        for (int i = 0; i < KEYSET_ITEM_COUNT; i++) {
+            entityContainer.addEntity().setName("task-" + i);
+        }
+        entityContainer.commit();
+
+        final List<Object> expectedIds = new ArrayList<Object>();
+        for (int i = 0; i < KEYSET_ITEM_COUNT; i++) {
+            expectedIds.add(entityContainer.getEntity(i).getTaskId());
+        }
+
+        ((LazyQueryView) entityContainer.getQueryView()).setIdPageSize(KEYSET_ITEM_COUNT / 2);
+        entityContainer.refresh();
+        final List<Object> itemIds = new ArrayList<Object>();
+        for (final Object itemId : entityContainer.getItemIds()) {
+            itemIds.add(itemId);
+        }
+        Assert.assertEquals("Verify IDs loaded in pages", expectedIds, itemIds);
+        entityContainer.refresh();
+        Assert.assertEquals("Verify ID range loaded from ID pages", expectedIds.subList(1, KEYSET_ITEM_COUNT - 1),
+                entityContainer.getItemIds(1, KEYSET_ITEM_COUNT - 2));
+        Assert.assertEquals("Verify item is loaded by ID", "task-" + (KEYSET_ITEM_COUNT - 1),
+                entityContainer.getEntity(KEYSET_ITEM_COUNT - 1).getName());
+    }
+
+    /**
+     * Test that item is loaded by ID outside cached window.
+     */
+    @Test
+    public final void testGetItemById() {
+        final LazyEntityContainer<Task> entityContainer = new LazyEntityContainer<Task>(
+                entityManager, Task.class,
+                ENTITY_CONTAINER_BATCH_SIZE, "taskId", true, true, true);
+        entityContainer.getQueryView().getQueryDefinition().setDefaultSortState(
+                new String[]{"taskId"}, new boolean[]{true});
+        for (int i = 0; i < KEYSET_ITEM_COUNT; i++) {
+            entityContainer.addEntity().setName("task-" + i);
+        }
+        entityContainer.commit();
+        final Object lastTaskId = entityContainer.getEntity(KEYSET_ITEM_COUNT - 1).getTaskId();
+        final Object firstTaskId = entityContainer.getEntity(0).getTaskId();
+
+        entityContainer.refresh();
+        final Item item = entityContainer.getItem(lastTaskId);
+        Assert.assertEquals("Verify item loaded by ID", "task-" + (KEYSET_ITEM_COUNT - 1),
+                item.getItemProperty("name").getValue());
+        Assert.assertSame("Verify item is shared with page", item,
+                entityContainer.getQueryView().getItem(KEYSET_ITEM_COUNT - 1));
+
+        entityContainer.addContainerFilter(new Compare.Equal("name", "task-0"));
+        Assert.assertNull("Verify filtered out item is not loaded", entityContainer.getItem(lastTaskId));
+        Assert.assertNotNull("Verify filtered item is loaded", entityContainer.getItem(firstTaskId));
+    }
+
     /**
      * Test query with background deleted entities after initialization.
      */
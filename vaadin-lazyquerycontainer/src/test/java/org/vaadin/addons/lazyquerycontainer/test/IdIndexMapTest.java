@@ -0,0 +1,81 @@
+/**
+ * Copyright 2010 Tommi S.E. Laukkanen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.lazyquerycontainer.test;
+
+import junit.framework.TestCase;
+import org.vaadin.addons.lazyquerycontainer.IdIndexMap;
+
+/**
+ * JUnit test for testing IdIndexMap implementation.
+ *
+ * @author Tommi S.E. Laukkanen
+ */
+public class IdIndexMapTest extends TestCase {
+
+    private IdIndexMap map;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        map = new IdIndexMap();
+    }
+
+    public void testPrimitiveIds() {
+        for (int i = 0; i < 10000; i++) {
+            map.put((long) i * 1024, i);
+        }
+        assertEquals(10000, map.size());
+        for (int i = 0; i < 10000; i++) {
+            assertEquals(i, map.get((long) i * 1024));
+        }
+        assertEquals(-1, map.get(1L));
+        // Integer ID is not equal to Long ID.
+        assertEquals(-1, map.get(1024));
+
+        map.put(1024L, 5);
+        assertEquals(5, map.get(1024L));
+        map.remove(1024L, 1);
+        assertEquals(5, map.get(1024L));
+
+        for (int i = 0; i < 10000; i += 2) {
+            map.remove((long) i * 1024, i);
+        }
+        assertEquals(5000, map.size());
+        for (int i = 0; i < 10000; i++) {
+            assertEquals(i % 2 == 0 ? -1 : (i == 1 ? 5 : i), map.get((long) i * 1024));
+        }
+    }
+
+    public void testObjectIds() {
+        map.put("a", 1);
+        map.put(7, 2);
+        map.put(8L, 3);
+        assertEquals(1, map.get("a"));
+        assertEquals(2, map.get(7));
+        assertEquals(3, map.get(8L));
+        assertEquals(-1, map.get(7L));
+        map.remove("a", 2);
+        assertEquals(1, map.get("a"));
+        map.remove("a", 1);
+        assertEquals(-1, map.get("a"));
+
+        map.clear();
+        assertEquals(0, map.size());
+        assertEquals(-1, map.get(7));
+        map.put(9L, 4);
+        assertEquals(4, map.get(9L));
+    }
+
+}
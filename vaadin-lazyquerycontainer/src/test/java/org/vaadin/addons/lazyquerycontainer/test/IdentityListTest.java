@@ -0,0 +1,63 @@
+/**
+ * Copyright 2010 Tommi S.E. Laukkanen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.lazyquerycontainer.test;
+
+import junit.framework.TestCase;
+import org.vaadin.addons.lazyquerycontainer.IdentityList;
+
+import java.util.Arrays;
+
+/**
+ * JUnit test for testing IdentityList implementation.
+ *
+ * @author Tommi S.E. Laukkanen
+ */
+public class IdentityListTest extends TestCase {
+
+    public void testIdentityMembership() {
+        final String first = new String("item");
+        final String second = new String("item");
+        final IdentityList<String> list = new IdentityList<String>();
+
+        assertTrue(list.add(first));
+        assertFalse(list.add(first));
+        assertFalse(list.contains(second));
+        assertEquals(-1, list.indexOf(second));
+        list.add(0, second);
+        list.add(0, second);
+        assertEquals(2, list.size());
+        assertSame(second, list.get(0));
+        assertSame(first, list.get(1));
+        assertEquals(1, list.indexOf(first));
+
+        assertTrue(list.remove(first));
+        assertFalse(list.remove(first));
+        assertFalse(list.contains(first));
+        assertEquals(1, list.size());
+
+        list.clear();
+        assertTrue(list.isEmpty());
+        assertFalse(list.contains(second));
+    }
+
+    public void testCopyConstructor() {
+        final String item = "item";
+        final IdentityList<String> list = new IdentityList<String>(Arrays.asList(item, item, "other"));
+        assertEquals(2, list.size());
+        assertTrue(list.contains(item));
+    }
+
+}
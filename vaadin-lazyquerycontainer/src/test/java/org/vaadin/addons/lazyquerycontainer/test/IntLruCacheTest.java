@@ -0,0 +1,103 @@
+/**
+ * Copyright 2010 Tommi S.E. Laukkanen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.lazyquerycontainer.test;
+
+import junit.framework.TestCase;
+import org.vaadin.addons.lazyquerycontainer.IntLruCache;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
+
+/**
+ * JUnit test for testing IntLruCache implementation.
+ *
+ * @author Tommi S.E. Laukkanen
+ */
+public class IntLruCacheTest extends TestCase {
+
+    private IntLruCache<String> cache;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        cache = new IntLruCache<String>();
+    }
+
+    public void testPutGetRemove() {
+        for (int i = 0; i < 1000; i++) {
+            assertNull(cache.put(i, "value-" + i));
+        }
+        assertEquals(1000, cache.size());
+        for (int i = 0; i < 1000; i++) {
+            assertEquals("value-" + i, cache.peek(i));
+        }
+        assertEquals("value-10", cache.put(10, "replaced"));
+        assertEquals("replaced", cache.get(10));
+        assertEquals("replaced", cache.remove(10));
+        assertNull(cache.remove(10));
+        assertFalse(cache.containsKey(10));
+        assertEquals(999, cache.size());
+        assertNull(cache.get(-1));
+    }
+
+    public void testAccessOrder() {
+        cache.put(1, "a");
+        cache.put(2, "b");
+        cache.put(3, "c");
+        assertEquals(1, cache.getEldestKey());
+        cache.get(1);
+        assertEquals(2, cache.getEldestKey());
+        cache.peek(2);
+        assertEquals(2, cache.getEldestKey());
+        cache.put(2, "b2");
+        assertEquals(3, cache.getEldestKey());
+        assertEquals(Arrays.asList("c", "a", "b2"), cache.values());
+        cache.remove(3);
+        assertEquals(1, cache.getEldestKey());
+        cache.remove(1);
+        assertEquals(2, cache.getEldestKey());
+        cache.clear();
+        assertTrue(cache.isEmpty());
+        try {
+            cache.getEldestKey();
+            fail("Empty cache should not have eldest key.");
+        } catch (final java.util.NoSuchElementException e) {
+            // expected
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public void testSerialization() throws Exception {
+        for (int i = 0; i < 100; i++) {
+            cache.put(i, "value-" + i);
+        }
+        cache.get(0);
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(cache);
+        out.close();
+        final IntLruCache<String> copy = (IntLruCache<String>) new ObjectInputStream(
+                new ByteArrayInputStream(bytes.toByteArray())).readObject();
+
+        assertEquals(100, copy.size());
+        assertEquals(1, copy.getEldestKey());
+        assertEquals("value-50", copy.peek(50));
+    }
+
+}
@@ -26,6 +26,7 @@ import org.vaadin.addons.lazyquerycontainer.*;
 
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.List;
 
 /**
  * JUnit test for testing LazyQueryContainer implementation.
@@ -74,6 +75,44 @@ public class LazyQueryContainerTest extends TestCase implements ItemSetChangeLis
         }
     }
 
+    public void testGetItemIdsRangeWithUnknownSize() {
+        LazyQueryDefinition definition = new LazyQueryDefinition(true, 30, null);
+        definition.addProperty("Index", Integer.class, 0, true, true);
+        MockQueryFactory factory = new MockQueryFactory(viewSize, 0, 0);
+        factory.setQueryDefinition(definition);
+        factory.setSizeUnknown(true);
+        LazyQueryContainer unknownSizeContainer = new LazyQueryContainer(new LazyQueryView(definition, factory));
+
+        assertEquals(50, unknownSizeContainer.getItemIds(0, 50).size());
+        assertEquals(90, unknownSizeContainer.size());
+        List<?> ids = unknownSizeContainer.getItemIds(30, 50);
+        assertEquals(50, ids.size());
+        assertEquals(30, ids.get(0));
+        assertEquals(79, ids.get(49));
+        ids = unknownSizeContainer.getItemIds(90, 50);
+        assertEquals(10, ids.size());
+        assertEquals(99, ids.get(9));
+        assertEquals(viewSize, unknownSizeContainer.size());
+    }
+
+    public void testOrderedAccessWithUnknownSize() {
+        LazyQueryDefinition definition = new LazyQueryDefinition(true, 30, null);
+        definition.addProperty("Index", Integer.class, 0, true, true);
+        MockQueryFactory factory = new MockQueryFactory(viewSize, 0, 0);
+        factory.setQueryDefinition(definition);
+        factory.setSizeUnknown(true);
+        LazyQueryContainer unknownSizeContainer = new LazyQueryContainer(new LazyQueryView(definition, factory));
+
+        assertEquals(0, unknownSizeContainer.firstItemId());
+        assertEquals(29, unknownSizeContainer.getIdByIndex(29));
+        assertEquals(30, unknownSizeContainer.nextItemId(29));
+        assertFalse(unknownSizeContainer.isLastId(59));
+        assertEquals(viewSize - 1, unknownSizeContainer.lastItemId());
+        assertEquals(viewSize, unknownSizeContainer.size());
+        assertTrue(unknownSizeContainer.isLastId(viewSize - 1));
+        assertNull(unknownSizeContainer.nextItemId(viewSize - 1));
+    }
+
     public void testGetItem() {
         for (int i = 0; i < viewSize; i++) {
             Item item = container.getItem(i);
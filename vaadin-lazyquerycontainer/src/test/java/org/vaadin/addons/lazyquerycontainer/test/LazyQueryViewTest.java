@@ -19,11 +19,24 @@ import com.vaadin.data.Item;
 import com.vaadin.data.Property;
 import junit.framework.Assert;
 import junit.framework.TestCase;
+import org.vaadin.addons.lazyquerycontainer.ItemWeigher;
 import org.vaadin.addons.lazyquerycontainer.LazyQueryDefinition;
 import org.vaadin.addons.lazyquerycontainer.LazyQueryView;
+import org.vaadin.addons.lazyquerycontainer.PrefetchPolicy;
+import org.vaadin.addons.lazyquerycontainer.Query;
+import org.vaadin.addons.lazyquerycontainer.QueryDefinition;
+import org.vaadin.addons.lazyquerycontainer.QueryFactory;
 import org.vaadin.addons.lazyquerycontainer.QueryItemStatus;
+import org.vaadin.addons.lazyquerycontainer.QuerySizeChangeListener;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * JUnit test for testing LazyQueryView implementation.
@@ -79,6 +92,365 @@ public class LazyQueryViewTest extends TestCase {
         }
     }
 
+    public void testCacheEviction() {
+        view.getQueryDefinition().setBatchSize(10);
+        view.setMaxCacheSize(20);
+        view.refresh();
+
+        final Item pinnedItem = view.getItem(0);
+        final Item modifiedItem = view.getItem(5);
+        final Item unmodifiedItem = view.getItem(10);
+        modifiedItem.getItemProperty("Editable").setValue("modified");
+
+        for (int i = 0; i < viewSize; i++) {
+            assertEquals(i, view.getItem(i).getItemProperty("Index").getValue());
+        }
+
+        assertNotSame(unmodifiedItem, view.getItem(10));
+        assertSame(pinnedItem, view.getItem(0));
+        assertSame(modifiedItem, view.getItem(5));
+        assertEquals("modified", view.getItem(5).getItemProperty("Editable").getValue());
+        assertEquals(1, view.getModifiedItems().size());
+    }
+
+    public void testGetItems() {
+        view.getQueryDefinition().setBatchSize(10);
+        view.refresh();
+
+        final Object middleBatchIndex = view.getItem(20).getItemProperty(
+                LazyQueryView.DEBUG_PROPERTY_ID_BATCH_INDEX).getValue();
+        final List<Item> items = view.getItems(5, 40);
+        assertEquals(40, items.size());
+        for (int i = 0; i < items.size(); i++) {
+            assertSame(view.getItem(i + 5), items.get(i));
+            assertEquals(i + 5, items.get(i).getItemProperty("Index").getValue());
+        }
+
+        // Gaps before and after the cached page are loaded with one batch each.
+        final Object firstBatchIndex = items.get(0).getItemProperty(LazyQueryView.DEBUG_PROPERTY_ID_BATCH_INDEX)
+                .getValue();
+        final Object lastBatchIndex = items.get(39).getItemProperty(LazyQueryView.DEBUG_PROPERTY_ID_BATCH_INDEX)
+                .getValue();
+        assertEquals(firstBatchIndex, items.get(14).getItemProperty(LazyQueryView.DEBUG_PROPERTY_ID_BATCH_INDEX)
+                .getValue());
+        assertEquals(middleBatchIndex, items.get(15).getItemProperty(LazyQueryView.DEBUG_PROPERTY_ID_BATCH_INDEX)
+                .getValue());
+        assertEquals(lastBatchIndex, items.get(25).getItemProperty(LazyQueryView.DEBUG_PROPERTY_ID_BATCH_INDEX)
+                .getValue());
+        assertFalse(firstBatchIndex.equals(lastBatchIndex));
+
+        view.addItem();
+        assertEquals(3, view.getItems(0, 3).size());
+        assertEquals(1, view.getItems(0, 3).get(2).getItemProperty("Index").getValue());
+    }
+
+    public void testCacheByteBudget() {
+        view.getQueryDefinition().setBatchSize(10);
+        view.setMaxCacheBytes(2000);
+        view.setItemWeigher(new ItemWeigher() {
+            @Override
+            public long weigh(final Item item) {
+                return 100;
+            }
+        });
+        view.refresh();
+
+        final Item firstItem = view.getItem(0);
+        assertSame(firstItem, view.getItem(0));
+        view.getItem(10);
+        assertSame(firstItem, view.getItem(0));
+        view.getItem(20);
+        view.getItem(30);
+        assertNotSame(firstItem, view.getItem(0));
+    }
+
+    public void testPrefetch() {
+        final List<Runnable> tasks = new ArrayList<Runnable>();
+        view.getQueryDefinition().setBatchSize(10);
+        view.setPrefetchExecutor(new Executor() {
+            @Override
+            public void execute(final Runnable command) {
+                tasks.add(command);
+            }
+        });
+        definition.setPrefetchPolicy(new PrefetchPolicy() {
+            @Override
+            public int getPrefetchDepth(final int direction, final double batchesPerSecond) {
+                return 1;
+            }
+        });
+        view.refresh();
+
+        view.getItem(0);
+        assertEquals(1, tasks.size());
+        tasks.get(0).run();
+        assertEquals(10, view.getItem(10).getItemProperty("Index").getValue());
+        assertEquals(2, tasks.size());
+
+        // Jump down cancels prefetch of skipped page.
+        view.getItem(50);
+        assertTrue(((Future<?>) tasks.get(1)).isCancelled());
+        assertEquals(3, tasks.size());
+
+        // Scrolling up prefetches previous page.
+        view.getItem(30);
+        assertTrue(((Future<?>) tasks.get(2)).isCancelled());
+        assertEquals(4, tasks.size());
+
+        // Policy may disable prefetch.
+        definition.setPrefetchPolicy(new PrefetchPolicy() {
+            @Override
+            public int getPrefetchDepth(final int direction, final double batchesPerSecond) {
+                return 0;
+            }
+        });
+        view.getItem(90);
+        assertTrue(((Future<?>) tasks.get(3)).isCancelled());
+        assertEquals(4, tasks.size());
+    }
+
+    public void testPrefetchRequiresBackgroundLoadQuery() {
+        final MockQueryFactory factory = new MockQueryFactory(viewSize, 0, 0);
+        factory.setQueryDefinition(definition);
+        factory.setBackgroundLoadSupported(false);
+        view = new LazyQueryView(definition, factory);
+        final List<Runnable> tasks = new ArrayList<Runnable>();
+        view.getQueryDefinition().setBatchSize(10);
+        view.setPrefetchExecutor(new Executor() {
+            @Override
+            public void execute(final Runnable command) {
+                tasks.add(command);
+            }
+        });
+        view.refresh();
+
+        view.getItem(0);
+        assertEquals(10, view.getItem(10).getItemProperty("Index").getValue());
+        assertEquals(0, tasks.size());
+    }
+
+    public void testAdaptiveBatchSize() {
+        view.getQueryDefinition().setBatchSize(10);
+        view.setAdaptiveBatchSize(10, 40, 100);
+        view.refresh();
+
+        // Mock query is fast so batch size grows toward maximum in multiples of minimum.
+        assertEquals(0, view.getItem(0).getItemProperty("Index").getValue());
+        final int batchSize = view.getBatchSize();
+        assertTrue(batchSize > 10 && batchSize <= 40);
+        assertEquals(0, batchSize % 10);
+        // Configured batch size is not changed.
+        assertEquals(10, view.getQueryDefinition().getBatchSize());
+
+        final Item item = view.getItem(10);
+        assertEquals(item.getItemProperty(LazyQueryView.DEBUG_PROPERTY_ID_BATCH_INDEX).getValue(),
+                view.getItem(10 + batchSize - 1).getItemProperty(LazyQueryView.DEBUG_PROPERTY_ID_BATCH_INDEX)
+                        .getValue());
+
+        for (int i = 0; i < viewSize; i++) {
+            assertEquals(i, view.getItem(i).getItemProperty("Index").getValue());
+        }
+    }
+
+    public void testUnknownQuerySize() {
+        final MockQueryFactory factory = new MockQueryFactory(viewSize, 0, 0);
+        factory.setQueryDefinition(definition);
+        factory.setSizeUnknown(true);
+        definition.setBatchSize(30);
+        view = new LazyQueryView(definition, factory);
+        final List<Integer> sizes = new ArrayList<Integer>();
+        view.addQuerySizeChangeListener(new QuerySizeChangeListener() {
+            @Override
+            public void querySizeChanged(final int querySize) {
+                sizes.add(querySize);
+            }
+        });
+
+        // Size is estimated one batch ahead of loaded items.
+        assertEquals(30, view.size());
+        assertEquals(0, view.getItem(0).getItemProperty("Index").getValue());
+        assertEquals(60, view.size());
+        assertEquals(30, view.getItem(30).getItemProperty("Index").getValue());
+        assertEquals(90, view.size());
+        assertEquals(60, view.getItem(60).getItemProperty("Index").getValue());
+        assertEquals(120, view.size());
+
+        // Short batch reveals the end of the query.
+        assertEquals(90, view.getItem(90).getItemProperty("Index").getValue());
+        assertEquals(viewSize, view.size());
+        assertEquals(viewSize - 1, view.getItem(viewSize - 1).getItemProperty("Index").getValue());
+        assertEquals(viewSize, view.size());
+        assertEquals(10, view.getItems(90, 10).size());
+
+        final List<Integer> expectedSizes = new ArrayList<Integer>();
+        expectedSizes.add(60);
+        expectedSizes.add(90);
+        expectedSizes.add(120);
+        expectedSizes.add(viewSize);
+        assertEquals(expectedSizes, sizes);
+    }
+
+    public void testUnknownQuerySizeItemIdList() {
+        final MockQueryFactory factory = new MockQueryFactory(viewSize, 0, 0);
+        factory.setQueryDefinition(definition);
+        factory.setSizeUnknown(true);
+        definition.setBatchSize(30);
+        view = new LazyQueryView(definition, factory);
+
+        assertEquals(30, view.getItemIdList().size());
+        view.getItem(0);
+        assertEquals(60, view.getItemIdList().size());
+        assertEquals(59, view.getItemIdList().get(59));
+        view.getItem(30);
+        view.getItem(60);
+        view.getItem(90);
+        assertEquals(viewSize, view.getItemIdList().size());
+        assertEquals(viewSize - 1, view.getItemIdList().get(viewSize - 1));
+    }
+
+    public void testUnknownQuerySizeShrink() {
+        final MockQueryFactory factory = new MockQueryFactory(viewSize, 0, 0);
+        factory.setQueryDefinition(definition);
+        factory.setSizeUnknown(true);
+        definition.setBatchSize(30);
+        view = new LazyQueryView(definition, factory);
+
+        view.getItem(0);
+        view.getItem(30);
+        view.getItem(60);
+        assertEquals(120, view.size());
+        try {
+            view.getItem(110);
+            fail("Item beyond the detected end of the query should not be returned.");
+        } catch (final IndexOutOfBoundsException e) {
+            assertEquals(viewSize, view.size());
+        }
+        assertEquals(viewSize - 1, view.getItem(viewSize - 1).getItemProperty("Index").getValue());
+    }
+
+    public void testResolveSize() {
+        final MockQueryFactory factory = new MockQueryFactory(viewSize, 0, 0);
+        factory.setQueryDefinition(definition);
+        factory.setSizeUnknown(true);
+        definition.setBatchSize(30);
+        view = new LazyQueryView(definition, factory);
+
+        assertEquals(30, view.resolveSize(0));
+        assertEquals(60, view.resolveSize(10));
+        assertEquals(60, view.resolveSize(30));
+        assertEquals(90, view.resolveSize(31));
+        assertEquals(viewSize, view.resolveSize(Integer.MAX_VALUE));
+        assertEquals(viewSize - 1, view.getItem(viewSize - 1).getItemProperty("Index").getValue());
+    }
+
+    public void testCountExecutor() {
+        final List<Runnable> tasks = new ArrayList<Runnable>();
+        definition.setBatchSize(30);
+        view.setCountExecutor(new Executor() {
+            @Override
+            public void execute(final Runnable command) {
+                tasks.add(command);
+            }
+        });
+        final List<Integer> sizes = new ArrayList<Integer>();
+        view.addQuerySizeChangeListener(new QuerySizeChangeListener() {
+            @Override
+            public void querySizeChanged(final int querySize) {
+                sizes.add(querySize);
+            }
+        });
+        view.refresh();
+
+        // Provisional size is estimated from loaded batches until count completes.
+        assertEquals(30, view.size());
+        assertEquals(1, tasks.size());
+        assertEquals(0, view.getItem(0).getItemProperty("Index").getValue());
+        assertEquals(60, view.size());
+
+        tasks.get(0).run();
+        assertEquals(viewSize, view.size());
+        assertEquals(viewSize - 1, view.getItem(viewSize - 1).getItemProperty("Index").getValue());
+        assertEquals(1, tasks.size());
+
+        final List<Integer> expectedSizes = new ArrayList<Integer>();
+        expectedSizes.add(60);
+        expectedSizes.add(viewSize);
+        assertEquals(expectedSizes, sizes);
+
+        // Refresh cancels pending count and schedules new one.
+        view.refresh();
+        assertEquals(30, view.size());
+        assertEquals(2, tasks.size());
+    }
+
+    public void testCountExecutorHoldsQueryLock() throws InterruptedException {
+        final MockQueryFactory mockFactory = new MockQueryFactory(viewSize, 0, 0);
+        mockFactory.setQueryDefinition(definition);
+        final AtomicInteger activeCalls = new AtomicInteger();
+        final AtomicBoolean overlapped = new AtomicBoolean();
+        final CountDownLatch countStarted = new CountDownLatch(1);
+        view = new LazyQueryView(definition, new QueryFactory() {
+            @Override
+            public Query constructQuery(final QueryDefinition queryDefinition) {
+                final Query query = mockFactory.constructQuery(queryDefinition);
+                return new Query() {
+                    @Override
+                    public int size() {
+                        overlapped.compareAndSet(false, activeCalls.incrementAndGet() > 1);
+                        countStarted.countDown();
+                        try {
+                            Thread.sleep(100);
+                        } catch (final InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        activeCalls.decrementAndGet();
+                        return query.size();
+                    }
+
+                    @Override
+                    public List<Item> loadItems(final int startIndex, final int count) {
+                        overlapped.compareAndSet(false, activeCalls.incrementAndGet() > 1);
+                        final List<Item> items = query.loadItems(startIndex, count);
+                        activeCalls.decrementAndGet();
+                        return items;
+                    }
+
+                    @Override
+                    public void saveItems(final List<Item> addedItems, final List<Item> modifiedItems,
+                                          final List<Item> removedItems) {
+                        query.saveItems(addedItems, modifiedItems, removedItems);
+                    }
+
+                    @Override
+                    public boolean deleteAllItems() {
+                        return query.deleteAllItems();
+                    }
+
+                    @Override
+                    public Item constructItem() {
+                        return query.constructItem();
+                    }
+                };
+            }
+        });
+        final List<Thread> countThreads = new ArrayList<Thread>();
+        view.setCountExecutor(new Executor() {
+            @Override
+            public void execute(final Runnable command) {
+                final Thread thread = new Thread(command);
+                countThreads.add(thread);
+                thread.start();
+            }
+        });
+        view.refresh();
+        view.size();
+
+        countStarted.await();
+        assertEquals(0, view.getItem(0).getItemProperty("Index").getValue());
+        countThreads.get(0).join();
+        assertFalse("Query should not be counted while items are loaded.", overlapped.get());
+    }
+
     public void testAscendingSort() {
         view.sort(new Object[]{"Index"}, new boolean[]{true});
 
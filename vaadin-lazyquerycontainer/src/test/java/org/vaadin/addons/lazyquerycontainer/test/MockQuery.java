@@ -19,7 +19,7 @@ import com.vaadin.data.Item;
 import com.vaadin.data.Property;
 import com.vaadin.data.util.ObjectProperty;
 import com.vaadin.data.util.PropertysetItem;
-import org.vaadin.addons.lazyquerycontainer.Query;
+import org.vaadin.addons.lazyquerycontainer.BackgroundLoadQuery;
 
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -31,7 +31,7 @@ import java.util.Map;
  *
  * @author tommilaukkanen
  */
-public class MockQuery implements Query {
+public class MockQuery implements BackgroundLoadQuery {
 
     private int addedItemCounter = 0;
     private MockQueryFactory queryFactory;
@@ -39,6 +39,8 @@ public class MockQuery implements Query {
     private int batchQueryMinTime;
     private int batchQueryMaxTime;
     private Map<Item, Item> cloneMap = new HashMap<Item, Item>();
+    private boolean sizeUnknown;
+    private boolean backgroundLoadSupported;
 
     public MockQuery(MockQueryFactory queryFactory, List<Item> items, int batchQueryMinTime, int batchQueryMaxTime) {
         this.queryFactory = queryFactory;
@@ -50,7 +52,7 @@ public class MockQuery implements Query {
 
     public List<Item> loadItems(int startIndex, int count) {
         List<Item> resultItems = new ArrayList<Item>();
-        for (int i = 0; i < count; i++) {
+        for (int i = 0; i < count && startIndex + i < items.size(); i++) {
             // Returning clones to be able to control commit/discard of modifications.
             Item original = items.get(startIndex + i);
             Item clone = cloneItem(original);
@@ -68,9 +70,24 @@ public class MockQuery implements Query {
 
 
     public int size() {
+        if (sizeUnknown) {
+            return -1;
+        }
         return items.size();
     }
 
+    public void setSizeUnknown(boolean sizeUnknown) {
+        this.sizeUnknown = sizeUnknown;
+    }
+
+    public boolean isBackgroundLoadSupported() {
+        return backgroundLoadSupported;
+    }
+
+    public void setBackgroundLoadSupported(boolean backgroundLoadSupported) {
+        this.backgroundLoadSupported = backgroundLoadSupported;
+    }
+
 
     public Item constructItem() {
         addedItemCounter++;
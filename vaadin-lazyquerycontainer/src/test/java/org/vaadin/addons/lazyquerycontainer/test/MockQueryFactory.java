@@ -40,6 +40,8 @@ public class MockQueryFactory implements QueryFactory {
     private int resultSize;
     private int batchQueryMinTime;
     private int batchQueryMaxTime;
+    private boolean sizeUnknown;
+    private boolean backgroundLoadSupported = true;
 
     public MockQueryFactory(int resultSize, int batchQueryMinTime, int batchQueryMaxTime) {
         this.resultSize = resultSize;
@@ -51,6 +53,14 @@ public class MockQueryFactory implements QueryFactory {
         this.definition = definition;
     }
 
+    public void setSizeUnknown(boolean sizeUnknown) {
+        this.sizeUnknown = sizeUnknown;
+    }
+
+    public void setBackgroundLoadSupported(boolean backgroundLoadSupported) {
+        this.backgroundLoadSupported = backgroundLoadSupported;
+    }
+
 
     public Query constructQuery(QueryDefinition definition) {
         // Creating items on demand when constructQuery is first time called.
@@ -69,7 +79,10 @@ public class MockQueryFactory implements QueryFactory {
             Collections.sort(this.items, comparator);
         }
 
-        return new MockQuery(this, this.items, batchQueryMinTime, batchQueryMaxTime);
+        final MockQuery query = new MockQuery(this, this.items, batchQueryMinTime, batchQueryMaxTime);
+        query.setSizeUnknown(sizeUnknown);
+        query.setBackgroundLoadSupported(backgroundLoadSupported);
+        return query;
     }
 
     public Item constructItem(int indexColumnValue, int reverseIndexColumnValue) {
@@ -0,0 +1,130 @@
+/**
+ * Copyright 2010 Tommi S.E. Laukkanen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.lazyquerycontainer.test;
+
+import junit.framework.TestCase;
+import org.vaadin.addons.lazyquerycontainer.NaturalNumberIdsList;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * JUnit test for testing NaturalNumberIdsList implementation.
+ *
+ * @author Tommi S.E. Laukkanen
+ */
+public class NaturalNumberIdsListTest extends TestCase {
+
+    public void testRange() {
+        final NaturalNumberIdsList list = new NaturalNumberIdsList(2000000);
+        assertEquals(2000000, list.size());
+        assertEquals(Integer.valueOf(1999999), list.get(1999999));
+        assertEquals(1500000, list.indexOf(1500000));
+        assertEquals(-1, list.indexOf(2000000));
+        assertEquals(-1, list.indexOf(5L));
+
+        int expected = 0;
+        for (final Integer id : list) {
+            assertEquals(expected++, id.intValue());
+        }
+        assertEquals(2000000, expected);
+    }
+
+    public void testSubList() {
+        final List<Integer> subList = new NaturalNumberIdsList(1000).subList(100, 200).subList(10, 15);
+        assertEquals(Arrays.asList(110, 111, 112, 113, 114), subList);
+        assertEquals(2, subList.indexOf(112));
+        assertEquals(-1, subList.indexOf(109));
+        assertFalse(subList.contains(115));
+        try {
+            subList.subList(0, 6);
+            fail("Sub list should not exceed the range.");
+        } catch (final IndexOutOfBoundsException e) {
+            // expected
+        }
+    }
+
+    public void testToArray() {
+        final NaturalNumberIdsList list = new NaturalNumberIdsList(1000).subList(10, 13);
+        final Object[] array = list.toArray();
+        assertTrue(Arrays.equals(new Object[]{10, 11, 12}, array));
+        assertNotSame(array, list.toArray());
+
+        final Integer[] larger = list.toArray(new Integer[]{-1, -1, -1, -1, -1});
+        assertTrue(Arrays.equals(new Integer[]{10, 11, 12, null, -1}, larger));
+        final Integer[] smaller = list.toArray(new Integer[0]);
+        assertTrue(Arrays.equals(new Integer[]{10, 11, 12}, smaller));
+    }
+
+    public void testPrimitiveAccess() {
+        final NaturalNumberIdsList list = new NaturalNumberIdsList(1000).subList(10, 13);
+        assertEquals(11, list.getInt(1));
+        final NaturalNumberIdsList.IntIterator iterator = list.iterator();
+        assertEquals(10, iterator.nextInt());
+        assertEquals(Integer.valueOf(11), iterator.next());
+        assertEquals(12, iterator.nextInt());
+        assertFalse(iterator.hasNext());
+        try {
+            list.getInt(3);
+            fail("Index beyond the range should not be returned.");
+        } catch (final IndexOutOfBoundsException e) {
+            // expected
+        }
+    }
+
+    public void testAllocation() {
+        final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        if (!(threadMXBean instanceof com.sun.management.ThreadMXBean)) {
+            return;
+        }
+        final com.sun.management.ThreadMXBean allocationBean = (com.sun.management.ThreadMXBean) threadMXBean;
+        if (!allocationBean.isThreadAllocatedMemorySupported() || !allocationBean.isThreadAllocatedMemoryEnabled()) {
+            return;
+        }
+        final long threadId = Thread.currentThread().getId();
+        final int size = 1000000;
+        final NaturalNumberIdsList list = new NaturalNumberIdsList(size);
+        list.toArray();
+        sumInts(list);
+
+        long allocatedBytes = allocationBean.getThreadAllocatedBytes(threadId);
+        final long sum = sumInts(list);
+        allocatedBytes = allocationBean.getThreadAllocatedBytes(threadId) - allocatedBytes;
+        assertEquals((long) size * (size - 1), sum);
+        assertTrue("Primitive access should not box: " + allocatedBytes, allocatedBytes < 64 * 1024);
+
+        allocatedBytes = allocationBean.getThreadAllocatedBytes(threadId);
+        final Object[] array = list.toArray();
+        allocatedBytes = allocationBean.getThreadAllocatedBytes(threadId) - allocatedBytes;
+        assertEquals(size, array.length);
+        assertTrue("Array copy should not box: " + allocatedBytes, allocatedBytes < 8L * size + 64 * 1024);
+    }
+
+    private static long sumInts(final NaturalNumberIdsList list) {
+        long sum = 0;
+        for (int i = 0; i < list.size(); i++) {
+            sum += list.getInt(i);
+        }
+        final NaturalNumberIdsList.IntIterator iterator = list.iterator();
+        while (iterator.hasNext()) {
+            sum += iterator.nextInt();
+        }
+        return sum;
+    }
+
+}
@@ -46,6 +46,10 @@ public final class Task implements Serializable {
      * Assignee of the task.
      */
     private String assignee;
+    /**
+     * Priority of the task.
+     */
+    private int priority;
     /**
      * Task author.
      */
@@ -108,6 +112,20 @@ public final class Task implements Serializable {
         this.assignee = assignee;
     }
 
+    /**
+     * @return the priority
+     */
+    public int getPriority() {
+        return priority;
+    }
+
+    /**
+     * @param priority the priority to set
+     */
+    public void setPriority(final int priority) {
+        this.priority = priority;
+    }
+
     /**
      * @return the serialversionuid
      */